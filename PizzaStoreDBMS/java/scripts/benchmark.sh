@@ -0,0 +1,20 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+DB=$USER"_project_phase_3_DB"
+CP=$DIR/../classes:$DIR/../lib/pg73jdbc3.jar
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#optionally replace the database contents with a generated data set first:
+#  benchmark.sh --setup <orders> [benchmark options]
+if [ "$1" == "--setup" ]; then
+   DATA=${TMPDIR:-/tmp}/pizzastore_bench_data
+   java -cp $CP DataGenerator $DATA --orders $2 --users $(( $2 / 20 + 1000 )) --seed 1 || exit 1
+   java -cp $CP BulkLoader $DB $PGPORT $USER $DATA --truncate || exit 1
+   shift 2
+fi
+
+#run the suites, e.g. benchmark.sh --suites login,orderInfo --threads 4 --time 20
+java -cp $CP Benchmark $DB $PGPORT $USER "$@"
@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#write a synthetic data set, e.g. generate_data.sh /tmp/big --orders 10000000 --lines 4 --seed 1
+#then load it with load_data.sh /tmp/big --truncate
+java -cp $DIR/../classes DataGenerator "$@"
@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+#simulate concurrent customers and drivers, e.g.
+#  load_test.sh --users 200 --rate 400 --duration 120 --mix placeOrder=40,updateStatus=20,recentOrders=20,viewMenu=20
+java -Dpizzastore.pool.max=${POOL_MAX:-20} -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar LoadTest $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,230 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * This program measures the throughput, mean latency and heap allocation
+ * per operation of the PizzaStore data access paths against a running
+ * database, ideally one loaded by DataGenerator and BulkLoader.  Each suite
+ * is warmed up, then measured for a fixed time on one or more threads;
+ * allocation comes from the per-thread counters of the HotSpot
+ * ThreadMXBean.
+ *
+ *   java Benchmark <dbname> <port> <user> [--suites a,b] [--warmup s] [--time s] [--threads n]
+ *
+ * Suites: materialize, materializeTable, login, placeOrder, recentOrders,
+ * orderInfo.  The placeOrder suite inserts real orders.
+ *
+ */
+public class Benchmark {
+
+   /**
+    * One benchmarked operation; the returned value is consumed so the JIT
+    * cannot drop the work.
+    */
+   interface Operation {
+      Object run(SplittableRandom random) throws Exception;
+   }
+
+   /**
+    * Parameter values sampled from the database before measuring.
+    */
+   static final class Samples {
+      final List<List<String>> users;   // login, password of recent customers
+      final ResultTable orders;         // orderID, login of recent orders
+      final List<Integer> stores;
+      final List<String> items;
+
+      Samples(PizzaStore esql) throws Exception {
+         this.users = esql.executeQueryAndReturnResult(
+            "SELECT login, password FROM Users WHERE login IN " +
+            "(SELECT login FROM FoodOrder ORDER BY orderTimestamp DESC, orderID DESC LIMIT 1000)");
+         this.orders = esql.executeQueryAndReturnTable(
+            "SELECT orderID, login FROM FoodOrder ORDER BY orderTimestamp DESC, orderID DESC LIMIT 1000");
+         this.stores = new ArrayList<Integer>();
+         for (List<String> store : esql.stores(null, null, true))
+            this.stores.add(Integer.parseInt(store.get(0).trim()));
+         this.items = new ArrayList<String>();
+         for (List<String> item : esql.menuItems(null, null, PizzaStore.SORT_NONE))
+            this.items.add(item.get(0));
+         if (this.users.isEmpty() || this.orders.rowCount() == 0 || this.stores.isEmpty() || this.items.isEmpty())
+            throw new IllegalStateException("The database needs users, orders, open stores and items");
+      }//end Samples
+
+      static <T> T pick(List<T> values, SplittableRandom random) {
+         return values.get(random.nextInt(values.size()));
+      }//end pick
+
+      /**
+       * @return a random row of the sampled orders
+       */
+      int pickOrder(SplittableRandom random) {
+         return random.nextInt(this.orders.rowCount());
+      }//end pickOrder
+   }//end Samples
+
+   static final class Result {
+      long operations;
+      long nanos;
+      long allocatedBytes;
+      long errors;
+   }//end Result
+
+   // sink for operation results
+   static volatile int consumed;
+
+   static Map<String, Operation> suites(final PizzaStore esql, final Samples samples) {
+      Map<String, Operation> suites = new LinkedHashMap<String, Operation>();
+      suites.put("materialize", random -> esql.executeQueryAndReturnResult(
+         "SELECT orderID, login, storeID, totalPrice, orderTimestamp, orderStatus FROM FoodOrder " +
+         "ORDER BY orderTimestamp DESC, orderID DESC LIMIT 500"));
+      suites.put("materializeTable", random -> esql.executeQueryAndReturnTable(
+         "SELECT orderID, login, storeID, totalPrice, orderTimestamp, orderStatus FROM FoodOrder " +
+         "ORDER BY orderTimestamp DESC, orderID DESC LIMIT 500"));
+      suites.put("login", random -> {
+         List<String> user = Samples.pick(samples.users, random);
+         return esql.loginExists(user.get(0)) ? esql.authenticate(user.get(0), user.get(1)) : null;
+      });
+      suites.put("placeOrder", random -> {
+         Map<String, Integer> cart = new LinkedHashMap<String, Integer>();
+         int lines = 1 + random.nextInt(4);
+         for (int i = 0; i < lines; ++i)
+            cart.put(Samples.pick(samples.items, random), 1 + random.nextInt(3));
+         return esql.submitOrder(Samples.pick(samples.users, random).get(0),
+                                 Samples.pick(samples.stores, random), cart);
+      });
+      suites.put("recentOrders", random -> esql.orders(Samples.pick(samples.users, random).get(0), 5));
+      suites.put("orderInfo", random -> {
+         int order = samples.pickOrder(random);
+         return esql.orderInfo(samples.orders.getInt(order, 0), samples.orders.getString(order, 1));
+      });
+      return suites;
+   }//end suites
+
+   static long allocatedBytes() {
+      return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+         .getThreadAllocatedBytes(Thread.currentThread().getId());
+   }//end allocatedBytes
+
+   /**
+    * Runs the operation on each thread until the deadline.
+    *
+    * @return the combined counts of all threads
+    */
+   static Result run(final Operation operation, int threads, final long millis, final long seed)
+         throws InterruptedException {
+      final Result[] results = new Result[threads];
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int t = 0; t < threads; ++t) {
+         final int index = t;
+         Thread worker = new Thread(() -> {
+            Result result = new Result();
+            SplittableRandom random = new SplittableRandom(seed + index);
+            int sink = 0;
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            long deadline = start + millis * 1000000L;
+            long now = start;
+            while (now < deadline) {
+               try{
+                  Object value = operation.run(random);
+                  sink += value == null ? 0 : System.identityHashCode(value);
+               }catch (Exception e){
+                  ++result.errors;
+               }//end try
+               ++result.operations;
+               now = System.nanoTime();
+            }//end while
+            result.nanos = now - start;
+            result.allocatedBytes = allocatedBytes() - allocated;
+            consumed += sink;
+            results[index] = result;
+            done.countDown();
+         }, "benchmark-" + t);
+         worker.setDaemon(true);
+         worker.start();
+      }//end for
+      done.await();
+
+      Result total = new Result();
+      for (Result result : results) {
+         total.operations += result.operations;
+         total.nanos = Math.max(total.nanos, result.nanos);
+         total.allocatedBytes += result.allocatedBytes;
+         total.errors += result.errors;
+      }//end for
+      return total;
+   }//end run
+
+   public static void main(String[] args) {
+      List<String> positional = new ArrayList<String>();
+      List<String> selected = null;
+      long warmupMillis = 5000;
+      long measureMillis = 10000;
+      int threads = 1;
+      try{
+         for (int i = 0; i < args.length; ++i) {
+            if (!args[i].startsWith("--")) {
+               positional.add(args[i]);
+            } else if (i + 1 >= args.length) {
+               throw new IllegalArgumentException(args[i] + " needs a value");
+            } else if (args[i].equals("--suites")) {
+               selected = Arrays.asList(args[++i].split(","));
+            } else if (args[i].equals("--warmup")) {
+               warmupMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("--time")) {
+               measureMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("--threads")) {
+               threads = Integer.parseInt(args[++i]);
+            } else {
+               throw new IllegalArgumentException("Unknown option " + args[i]);
+            }//end if
+         }//end for
+         if (positional.size() != 3 || threads < 1 || measureMillis <= 0)
+            throw new IllegalArgumentException("Missing database arguments or invalid option");
+      }catch (IllegalArgumentException e){
+         System.err.println(e.getMessage());
+         System.err.println(
+            "Usage: java [-classpath <classpath>] " + Benchmark.class.getName() +
+            " <dbname> <port> <user> [--suites a,b] [--warmup s] [--time s] [--threads n]");
+         System.exit(1);
+      }//end try
+
+      PizzaStore esql = null;
+      try{
+         esql = new PizzaStore(positional.get(0), positional.get(1), positional.get(2), "");
+         Map<String, Operation> suites = suites(esql, new Samples(esql));
+         if (selected == null)
+            selected = new ArrayList<String>(suites.keySet());
+
+         System.out.println(String.format("%-14s %12s %12s %14s %8s", "suite", "ops/s", "us/op", "bytes/op", "errors"));
+         for (String name : selected) {
+            Operation operation = suites.get(name);
+            if (operation == null) {
+               System.err.println("Unknown suite " + name + ", expected one of " + suites.keySet());
+               continue;
+            }//end if
+            run(operation, threads, warmupMillis, 1);
+            Result result = run(operation, threads, measureMillis, 2);
+            double seconds = result.nanos / 1e9;
+            long operations = Math.max(result.operations, 1);
+            System.out.println(String.format("%-14s %12.1f %12.1f %14d %8d", name,
+                                             result.operations / seconds,
+                                             seconds * 1e6 * threads / operations,
+                                             result.allocatedBytes / operations,
+                                             result.errors));
+         }//end for
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end Benchmark
@@ -0,0 +1,282 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This program loads the CSV files of a data directory into the PizzaStore
+ * tables.  Each table is streamed through multi-row INSERT statements of
+ * a few hundred rows inside a single transaction on its own pooled
+ * connection; tables start as soon as the
+ * tables they reference are loaded, so Users, Items and Store load in
+ * parallel, then FoodOrder, then ItemsInOrder.  Secondary indexes are
+ * dropped before the load and recreated from their saved definitions
+ * afterwards, and the rows per second of every table are reported.
+ *
+ *   java BulkLoader <dbname> <port> <user> [dataDir] [--truncate] [--batch <rows>]
+ *
+ */
+public class BulkLoader {
+
+   /**
+    * A table, its CSV file and the type of each column in table order:
+    * T text, S text redacted from logs, I integer, N numeric, F float,
+    * D timestamp.
+    */
+   static final class Table {
+      final String name;
+      final String file;
+      final String types;
+      final String[] references;
+
+      Table(String name, String file, String types, String... references) {
+         this.name = name;
+         this.file = file;
+         this.types = types;
+         this.references = references;
+      }//end Table
+
+      String insert() {
+         return "INSERT INTO " + this.name;
+      }//end insert
+
+      String row() {
+         StringBuilder sql = new StringBuilder("(");
+         for (int i = 0; i < this.types.length(); ++i)
+            sql.append(i == 0 ? "?" : ", ?");
+         return sql.append(')').toString();
+      }//end row
+   }//end Table
+
+   // in foreign key order: every table follows the tables it references.
+   static final Table[] TABLES = {
+      new Table("Users", "users.csv", "TSTTT"),
+      new Table("Items", "items.csv", "TTTNT"),
+      new Table("Store", "store.csv", "ITTTTF"),
+      new Table("FoodOrder", "foodorder.csv", "ITINDT", "Users", "Store"),
+      new Table("ItemsInOrder", "itemsinorder.csv", "ITI", "FoodOrder", "Items"),
+   };
+
+   // rows per INSERT statement; at most PizzaStore.MAX_VALUES_ROWS are sent at once.
+   static final int DEFAULT_BATCH_SIZE = PizzaStore.MAX_VALUES_ROWS;
+
+   private final PizzaStore _esql;
+   private final File _dir;
+   private final int _batchSize;
+
+   public BulkLoader(PizzaStore esql, File dir, int batchSize) {
+      this._esql = esql;
+      this._dir = dir;
+      this._batchSize = batchSize;
+   }//end BulkLoader
+
+   /**
+    * Converts a CSV field to the Java type bound for its column.  Numbers
+    * and timestamps ignore surrounding blanks, as the server's input
+    * functions do; text is kept exactly.
+    */
+   static Object convert(String value, char type) {
+      if (value == null || type == 'T')
+         return value;
+      if (type == 'S')
+         return PizzaStore.secret(value);
+      String v = value.trim();
+      switch (type) {
+         case 'I': return Integer.valueOf(v);
+         case 'N': return new BigDecimal(v);
+         case 'F': return Double.valueOf(v);
+         case 'D': return Timestamp.valueOf(v);
+         default: throw new IllegalArgumentException("Unknown column type " + type);
+      }//end switch
+   }//end convert
+
+   /**
+    * Loads one table in a single transaction.
+    *
+    * @return the number of rows loaded
+    * @throws java.sql.SQLException when the file cannot be read or a row is rejected
+    */
+   long load(final Table table) throws SQLException {
+      final File file = new File(this._dir, table.file);
+      final String insert = table.insert();
+      final String values = table.row();
+      return this._esql.inTransaction(() -> {
+         long count = 0;
+         try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            CsvReader csv = new CsvReader(reader);
+            if (csv.next() == null)
+               return 0L;
+            List<Object[]> batch = new ArrayList<Object[]>(this._batchSize);
+            List<String> record;
+            while (true) {
+               long line = csv.line();
+               if ((record = csv.next()) == null)
+                  break;
+               if (record.size() == 1 && record.get(0) == null)
+                  continue; // blank line
+               if (record.size() != table.types.length())
+                  throw new SQLException(file + ":" + line + ": expected " + table.types.length()
+                                         + " fields, found " + record.size());
+               Object[] row = new Object[record.size()];
+               try{
+                  for (int i = 0; i < row.length; ++i)
+                     row[i] = convert(record.get(i), table.types.charAt(i));
+               }catch (IllegalArgumentException e){
+                  throw new SQLException(file + ":" + line + ": " + e.getMessage());
+               }//end try
+               batch.add(row);
+               if (batch.size() == this._batchSize) {
+                  this._esql.executeValues(insert, values, "", batch);
+                  count += batch.size();
+                  batch.clear();
+               }//end if
+            }//end while
+            if (!batch.isEmpty()) {
+               this._esql.executeValues(insert, values, "", batch);
+               count += batch.size();
+            }//end if
+         }catch (IOException e){
+            throw new SQLException("Cannot read " + file + ": " + e.getMessage());
+         }//end try
+         return count;
+      });
+   }//end load
+
+   /**
+    * Drops the indexes of the loaded tables that do not back a primary key
+    * or unique constraint.
+    *
+    * @return the definitions of the dropped indexes
+    */
+   List<String> dropIndexes() throws SQLException {
+      List<List<String>> indexes = this._esql.executeQueryAndReturnResult(
+         "SELECT indexname, indexdef FROM pg_indexes WHERE schemaname = current_schema() " +
+         "AND tablename IN ('users', 'items', 'store', 'foodorder', 'itemsinorder') " +
+         "AND indexname NOT IN (SELECT conname FROM pg_constraint)");
+      List<String> definitions = new ArrayList<String>();
+      for (List<String> index : indexes) {
+         this._esql.executeUpdate("DROP INDEX \"" + index.get(0).replace("\"", "\"\"") + "\"");
+         definitions.add(index.get(1));
+      }//end for
+      return definitions;
+   }//end dropIndexes
+
+   /**
+    * Loads every table, each after the tables it references.
+    *
+    * @return true when every table loaded
+    */
+   boolean loadAll() throws InterruptedException {
+      ExecutorService workers = Executors.newFixedThreadPool(TABLES.length);
+      Map<String, Future<Long>> loads = new HashMap<String, Future<Long>>();
+      try{
+         for (final Table table : TABLES) {
+            final List<Future<Long>> references = new ArrayList<Future<Long>>();
+            for (String name : table.references)
+               references.add(loads.get(name));
+            loads.put(table.name, workers.submit(() -> {
+               for (Future<Long> reference : references)
+                  reference.get();
+               long start = System.nanoTime();
+               long rows = load(table);
+               double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+               System.out.println(String.format("%-13s %10d rows in %8.2f s  %12.0f rows/s",
+                                                table.name, rows, seconds, rows / seconds));
+               return rows;
+            }));
+         }//end for
+
+         boolean loaded = true;
+         for (Table table : TABLES) {
+            try{
+               loads.get(table.name).get();
+            }catch (ExecutionException e){
+               Throwable cause = e.getCause();
+               // tables waiting on a failed table report that table's error
+               if (!(cause instanceof ExecutionException))
+                  System.err.println(table.name + " was not loaded: " + cause.getMessage());
+               else
+                  System.err.println(table.name + " was not loaded: a table it references failed");
+               loaded = false;
+            }//end try
+         }//end for
+         return loaded;
+      }finally{
+         workers.shutdownNow();
+      }//end try
+   }//end loadAll
+
+   public static void main(String[] args) {
+      List<String> positional = new ArrayList<String>();
+      boolean truncate = false;
+      int batchSize = DEFAULT_BATCH_SIZE;
+      for (int i = 0; i < args.length; ++i) {
+         if (args[i].equals("--truncate"))
+            truncate = true;
+         else if (args[i].equals("--batch") && i + 1 < args.length)
+            batchSize = Integer.parseInt(args[++i]);
+         else
+            positional.add(args[i]);
+      }//end for
+      if (positional.size() < 3 || positional.size() > 4 || batchSize <= 0) {
+         System.err.println(
+            "Usage: java [-classpath <classpath>] " + BulkLoader.class.getName() +
+            " <dbname> <port> <user> [dataDir] [--truncate] [--batch <rows>]");
+         return;
+      }//end if
+      File dir = new File(positional.size() == 4 ? positional.get(3) : "../../data");
+
+      PizzaStore esql = null;
+      boolean loaded = false;
+      try{
+         esql = new PizzaStore(positional.get(0), positional.get(1), positional.get(2), "");
+         BulkLoader loader = new BulkLoader(esql, dir, batchSize);
+
+         if (truncate)
+            esql.executeUpdate("TRUNCATE Users, Items, Store, FoodOrder, ItemsInOrder");
+
+         List<String> indexes = loader.dropIndexes();
+         long start = System.nanoTime();
+         try{
+            loaded = loader.loadAll();
+         }finally{
+            long indexStart = System.nanoTime();
+            for (String definition : indexes)
+               esql.executeUpdate(definition);
+            System.out.println(String.format("%d indexes rebuilt in %.2f s",
+                                             indexes.size(), (System.nanoTime() - indexStart) / 1e9));
+         }//end try
+
+         // start handing out orderIDs after the loaded orders
+         esql.executeQueryAndReturnResult(
+            "SELECT setval(?::regclass, (SELECT COALESCE(MAX(orderID), 0) + 1 FROM FoodOrder), false)",
+            OrderIdAllocator.SEQUENCE);
+         long rollupStart = System.nanoTime();
+         esql.sales().rebuild();
+         System.out.println(String.format("Sales rollups rebuilt in %.2f s", (System.nanoTime() - rollupStart) / 1e9));
+         esql.executeUpdate("ANALYZE");
+         System.out.println(String.format("Load finished in %.2f s", (System.nanoTime() - start) / 1e9));
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+      if (!loaded)
+         System.exit(1);
+   }//end main
+
+}//end BulkLoader
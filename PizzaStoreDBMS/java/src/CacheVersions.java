@@ -0,0 +1,120 @@
+import java.sql.SQLException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class keeps the caches of one process coherent with changes made by
+ * other processes.  Triggers bump a per-table counter in the CacheVersion
+ * table in the same transaction as every change to Items, Store or Users;
+ * a background timer reads the three counters in one small query and
+ * invalidates only the cache of a table whose counter moved.  Sessions are
+ * revalidated lazily: each records the Users version it was read at and is
+ * reread once the polled version is newer.  A separate Logins counter moves
+ * when a login is added, for the login directory.
+ *
+ */
+public class CacheVersions {
+
+   // how often the versions are polled, overridable with -Dpizzastore.cache.pollMillis;
+   // zero or negative disables polling, leaving only this process's invalidations.
+   static final long POLL_MILLIS = Long.getLong("pizzastore.cache.pollMillis", 1000L);
+
+   private final PizzaStore _esql;
+   private final MenuCache _menu;
+   private final StoreDirectory _stores;
+   private final LoginDirectory _logins;
+   private final Timer _poller;
+
+   // versions seen by the last poll, -1 before the first one.
+   private long _items = -1;
+   private long _store = -1;
+   private long _loginsVersion = -1;
+   private volatile long _users = -1;
+
+   // set when the CacheVersion table is missing, which stops polling.
+   private volatile boolean _disabled = false;
+
+   /**
+    * Creates the poller and starts polling in the background
+    *
+    * @param esql the database the caches are loaded from
+    * @param menu dropped when Items changes
+    * @param stores dropped when Store changes
+    * @param logins told when logins are added
+    */
+   public CacheVersions(PizzaStore esql, MenuCache menu, StoreDirectory stores, LoginDirectory logins) {
+      this._esql = esql;
+      this._menu = menu;
+      this._stores = stores;
+      this._logins = logins;
+      if (POLL_MILLIS <= 0) {
+         this._poller = null;
+         return;
+      }//end if
+      this._poller = new Timer("cache-version-poller", true);
+      this._poller.schedule(new TimerTask() {
+         public void run() { poll(); }
+      }, 0, POLL_MILLIS);
+   }//end CacheVersions
+
+   /**
+    * Reads the versions and invalidates the caches of the tables that
+    * changed since the previous poll.  Failures are retried on the next one.
+    */
+   synchronized void poll() {
+      if (this._disabled)
+         return;
+      ResultTable versions;
+      try{
+         versions = this._esql.executeQueryAndReturnTable("SELECT tableName, version FROM CacheVersion");
+      }catch (SQLException e){
+         if ("42P01".equals(e.getSQLState())) {
+            // undefined_table: a database created before CacheVersion existed
+            System.err.println("CacheVersion table not found, caches are only invalidated by this process");
+            this._disabled = true;
+            this._poller.cancel();
+         }//end if
+         return;
+      }//end try
+      for (int i = 0; i < versions.rowCount(); ++i) {
+         String table = versions.getString(i, 0);
+         long version = versions.getLong(i, 1);
+         if (table.equals("Items") && version != this._items) {
+            this._menu.invalidate();
+            this._items = version;
+         } else if (table.equals("Store") && version != this._store) {
+            this._stores.invalidate();
+            this._store = version;
+         } else if (table.equals("Users")) {
+            this._users = version;
+         } else if (table.equals("Logins") && version != this._loginsVersion) {
+            this._logins.changed(this._loginsVersion, version);
+            this._loginsVersion = version;
+         }//end if
+      }//end for
+   }//end poll
+
+   /**
+    * @return the Users version seen by the last poll, -1 if none was seen;
+    *         sessions read at an older version may be stale
+    */
+   public long users() {
+      return this._users;
+   }//end users
+
+   /**
+    * @return true while versions are polled
+    */
+   public boolean active() {
+      return this._poller != null && !this._disabled;
+   }//end active
+
+   /**
+    * Stops polling.
+    */
+   public void close() {
+      if (this._poller != null)
+         this._poller.cancel();
+   }//end close
+
+}//end CacheVersions
@@ -0,0 +1,285 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class defines a bounded pool of physical database connections.
+ * Connections are created lazily up to the maximum size, validated when
+ * they are borrowed after sitting idle, and closed by a background timer
+ * once they have been idle too long and the pool is above its minimum
+ * size.  Each pooled connection carries its own prepared statement cache.
+ *
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection together with the statements prepared on it.
+    */
+   public static class Entry {
+      final Connection connection;
+      final StatementCache statements;
+      long lastUsed;
+
+      Entry(Connection connection, int statementCacheSize) {
+         this.connection = connection;
+         this.statements = new StatementCache(connection, statementCacheSize);
+         this.lastUsed = System.currentTimeMillis();
+      }
+
+      void close() {
+         this.statements.close();
+         try{
+            this.connection.close();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end close
+   }//end Entry
+
+   // connections idle for less than this are handed out without a check.
+   static final long VALIDATION_INTERVAL_MILLIS = 5000;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _idleTimeoutMillis;
+   private final long _borrowTimeoutMillis;
+   private final int _statementCacheSize;
+
+   // idle connections, most recently used first.
+   private final ArrayDeque<Entry> _idle = new ArrayDeque<Entry>();
+
+   // number of connections open or being opened, idle or borrowed.
+   private int _total = 0;
+   private boolean _closed = false;
+   private final Timer _evictor;
+
+   /**
+    * Creates a new pool and opens its minimum number of connections
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize the number of connections kept open when idle
+    * @param maxSize the maximum number of open connections
+    * @param idleTimeoutMillis how long a connection above the minimum may stay idle
+    * @param borrowTimeoutMillis how long borrow() waits for a free connection
+    * @param statementCacheSize the number of statements cached per connection
+    * @throws java.sql.SQLException when the initial connections cannot be opened
+    */
+   public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+                         long idleTimeoutMillis, long borrowTimeoutMillis, int statementCacheSize) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("Invalid pool size " + minSize + ".." + maxSize);
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._idleTimeoutMillis = idleTimeoutMillis;
+      this._borrowTimeoutMillis = borrowTimeoutMillis;
+      this._statementCacheSize = statementCacheSize;
+
+      List<Entry> initial = new ArrayList<Entry>();
+      try{
+         for (int i = 0; i < minSize; ++i)
+            initial.add(open());
+      }catch (SQLException e){
+         for (Entry entry : initial)
+            entry.close();
+         throw e;
+      }//end try
+      synchronized (this) {
+         this._total = initial.size();
+         this._idle.addAll(initial);
+      }
+
+      this._evictor = new Timer("connection-pool-evictor", true);
+      long period = Math.max(1000, idleTimeoutMillis / 2);
+      this._evictor.schedule(new TimerTask() {
+         public void run() { evictIdle(); }
+      }, period, period);
+   }//end ConnectionPool
+
+   private Entry open() throws SQLException {
+      return new Entry(DriverManager.getConnection(this._url, this._user, this._passwd), this._statementCacheSize);
+   }//end open
+
+   /**
+    * Borrows a connection, opening a new one if none is idle and the pool
+    * is below its maximum size, or waiting for one to be released.
+    *
+    * @return a validated connection, to be handed back with release()
+    * @throws java.sql.SQLException when the pool is closed, no connection
+    *         became free within the borrow timeout, or opening one failed
+    */
+   public Entry borrow() throws SQLException {
+      long deadline = System.currentTimeMillis() + this._borrowTimeoutMillis;
+      while (true) {
+         Entry entry = null;
+         synchronized (this) {
+            while (!this._closed && this._idle.isEmpty() && this._total >= this._maxSize) {
+               long remaining = deadline - System.currentTimeMillis();
+               if (remaining <= 0)
+                  throw new SQLException("Timed out after " + this._borrowTimeoutMillis
+                                         + " ms waiting for a database connection");
+               try{
+                  wait(remaining);
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }//end try
+            }//end while
+            if (this._closed)
+               throw new SQLException("Connection pool is closed");
+            if (!this._idle.isEmpty())
+               entry = this._idle.pollFirst();
+            else
+               ++this._total; // reserve a slot, opened below outside the lock
+         }
+
+         if (entry == null) {
+            try{
+               entry = open();
+            }catch (SQLException e){
+               discarded();
+               throw e;
+            }//end try
+            return entry;
+         }//end if
+
+         if (isValid(entry))
+            return entry;
+         entry.close();
+         discarded();
+      }//end while
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool.  Broken or closed
+    * connections are discarded instead of being reused.
+    *
+    * @param entry the borrowed connection
+    * @param broken true when the caller saw a connection level failure
+    */
+   public void release(Entry entry, boolean broken) {
+      boolean discard = broken;
+      if (!discard) {
+         try{
+            discard = entry.connection.isClosed() || !entry.connection.getAutoCommit();
+         }catch (SQLException e){
+            discard = true;
+         }//end try
+      }//end if
+      if (discard) {
+         entry.close();
+         discarded();
+         return;
+      }//end if
+      entry.lastUsed = System.currentTimeMillis();
+      synchronized (this) {
+         if (!this._closed) {
+            this._idle.addFirst(entry);
+            notifyAll();
+            return;
+         }//end if
+      }
+      entry.close();
+      discarded();
+   }//end release
+
+   private synchronized void discarded() {
+      --this._total;
+      notifyAll();
+   }//end discarded
+
+   private boolean isValid(Entry entry) {
+      if (System.currentTimeMillis() - entry.lastUsed < VALIDATION_INTERVAL_MILLIS)
+         return true;
+      Statement stmt = null;
+      try{
+         stmt = entry.connection.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT 1");
+         boolean valid = rs.next();
+         rs.close();
+         return valid;
+      }catch (SQLException e){
+         return false;
+      }finally{
+         try{
+            if (stmt != null)
+               stmt.close();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end try
+   }//end isValid
+
+   /**
+    * Closes connections that have been idle longer than the idle timeout,
+    * keeping at least the minimum number open.
+    */
+   void evictIdle() {
+      List<Entry> expired = new ArrayList<Entry>();
+      long cutoff = System.currentTimeMillis() - this._idleTimeoutMillis;
+      synchronized (this) {
+         // the least recently used connections sit at the tail.
+         Iterator<Entry> it = this._idle.descendingIterator();
+         while (it.hasNext() && this._total - expired.size() > this._minSize) {
+            Entry entry = it.next();
+            if (entry.lastUsed > cutoff)
+               break;
+            it.remove();
+            expired.add(entry);
+         }//end while
+         this._total -= expired.size();
+         if (!expired.isEmpty())
+            notifyAll();
+      }
+      for (Entry entry : expired)
+         entry.close();
+   }//end evictIdle
+
+   /**
+    * @return the number of open connections, idle or borrowed
+    */
+   public synchronized int size() {
+      return this._total;
+   }//end size
+
+   /**
+    * @return the number of connections waiting in the pool
+    */
+   public synchronized int idleCount() {
+      return this._idle.size();
+   }//end idleCount
+
+   /**
+    * Closes the idle connections and stops handing out new ones.
+    * Connections still borrowed are closed as they are released.
+    */
+   public void close() {
+      List<Entry> drained;
+      synchronized (this) {
+         this._closed = true;
+         drained = new ArrayList<Entry>(this._idle);
+         this._total -= this._idle.size();
+         this._idle.clear();
+         notifyAll();
+      }
+      this._evictor.cancel();
+      for (Entry entry : drained)
+         entry.close();
+   }//end close
+
+}//end ConnectionPool
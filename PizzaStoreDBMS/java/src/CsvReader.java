@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class streams records from CSV text with the same rules as the
+ * PostgreSQL COPY ... CSV format, so loading a file through it stores the
+ * same values COPY would: a double quote anywhere in a field starts or ends
+ * a quoted section, a doubled quote inside one is a literal quote, quoted
+ * sections may span lines, blanks are kept, and an empty unquoted field is
+ * NULL while "" is the empty string.
+ *
+ */
+public class CsvReader {
+
+   private final Reader _in;
+   private final char[] _buffer = new char[65536];
+   private int _pos = 0;
+   private int _end = 0;
+   private long _line = 1;
+
+   public CsvReader(Reader in) {
+      this._in = in;
+   }//end CsvReader
+
+   /**
+    * @return the line the next record starts on
+    */
+   public long line() {
+      return this._line;
+   }//end line
+
+   /**
+    * Reads the next record.
+    *
+    * @return the fields of the record, or null at the end of the input
+    * @throws java.io.IOException when reading fails
+    * @throws IllegalArgumentException when a quoted section is not closed
+    */
+   public List<String> next() throws IOException {
+      int c = read();
+      if (c < 0)
+         return null;
+
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      boolean quoted = false;
+      boolean inQuotes = false;
+      long start = this._line;
+      while (true) {
+         if (c < 0) {
+            if (inQuotes)
+               throw new IllegalArgumentException("Unterminated quoted field starting on line " + start);
+            break;
+         }//end if
+         if (inQuotes) {
+            if (c == '"') {
+               int n = peek();
+               if (n == '"') {
+                  read();
+                  field.append('"');
+               } else {
+                  inQuotes = false;
+               }//end if
+            } else {
+               field.append((char) c);
+            }//end if
+         } else if (c == '"') {
+            inQuotes = true;
+            quoted = true;
+         } else if (c == ',') {
+            fields.add(quoted || field.length() > 0 ? field.toString() : null);
+            field.setLength(0);
+            quoted = false;
+         } else if (c == '\n') {
+            break;
+         } else if (c == '\r') {
+            if (peek() == '\n')
+               read();
+            break;
+         } else {
+            field.append((char) c);
+         }//end if
+         c = read();
+      }//end while
+      fields.add(quoted || field.length() > 0 ? field.toString() : null);
+      return fields;
+   }//end next
+
+   private int read() throws IOException {
+      if (this._pos == this._end && !fill())
+         return -1;
+      char c = this._buffer[this._pos++];
+      if (c == '\n')
+         ++this._line;
+      return c;
+   }//end read
+
+   private int peek() throws IOException {
+      if (this._pos == this._end && !fill())
+         return -1;
+      return this._buffer[this._pos];
+   }//end peek
+
+   private boolean fill() throws IOException {
+      int n = this._in.read(this._buffer);
+      if (n <= 0)
+         return false;
+      this._pos = 0;
+      this._end = n;
+      return true;
+   }//end fill
+
+}//end CsvReader
@@ -0,0 +1,385 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.SplittableRandom;
+
+/**
+ * This program writes a synthetic, referentially consistent data set for
+ * the PizzaStore tables in the CSV layout of data/, for BulkLoader.  Users,
+ * stores and items are chosen with Zipf skew so a few stores, customers and
+ * items dominate, and order times follow lunch and dinner peaks.  Rows are
+ * written as they are generated, so memory stays constant at any scale, and
+ * the same seed always produces the same files.
+ *
+ *   java DataGenerator <outDir> [--users n] [--stores n] [--items n]
+ *        [--orders n] [--lines avg] [--days n] [--skew s] [--seed n]
+ *
+ */
+public class DataGenerator {
+
+   /**
+    * Draws ranks 1..n with probability proportional to 1/rank^exponent by
+    * rejection-inversion (Hormann and Derflinger), in constant time and
+    * memory whatever n is.
+    */
+   static final class Zipf {
+      private final int _n;
+      private final double _exponent;
+      private final double _hIntegralX1;
+      private final double _hIntegralN;
+      private final double _s;
+
+      Zipf(int n, double exponent) {
+         if (n < 1 || exponent <= 0)
+            throw new IllegalArgumentException("Zipf needs n >= 1 and a positive exponent");
+         this._n = n;
+         this._exponent = exponent;
+         this._hIntegralX1 = hIntegral(1.5) - 1.0;
+         this._hIntegralN = hIntegral(n + 0.5);
+         this._s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+      }//end Zipf
+
+      int next(SplittableRandom random) {
+         while (true) {
+            double u = this._hIntegralN + random.nextDouble() * (this._hIntegralX1 - this._hIntegralN);
+            double x = hIntegralInverse(u);
+            int k = (int) (x + 0.5);
+            if (k < 1)
+               k = 1;
+            else if (k > this._n)
+               k = this._n;
+            if (k - x <= this._s || u >= hIntegral(k + 0.5) - h(k))
+               return k;
+         }//end while
+      }//end next
+
+      private double h(double x) {
+         return Math.exp(-this._exponent * Math.log(x));
+      }//end h
+
+      private double hIntegral(double x) {
+         double logX = Math.log(x);
+         return helper2((1.0 - this._exponent) * logX) * logX;
+      }//end hIntegral
+
+      private double hIntegralInverse(double x) {
+         double t = x * (1.0 - this._exponent);
+         if (t < -1.0)
+            t = -1.0;
+         return Math.exp(helper1(t) * x);
+      }//end hIntegralInverse
+
+      // log(1 + x) / x, accurate near 0
+      private static double helper1(double x) {
+         return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+      }//end helper1
+
+      // (exp(x) - 1) / x, accurate near 0
+      private static double helper2(double x) {
+         return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+      }//end helper2
+   }//end Zipf
+
+   /**
+    * Spreads Zipf ranks over IDs 1..n with a fixed stride coprime to n, so
+    * the hot IDs are scattered instead of being the lowest ones.
+    */
+   static final class Scatter {
+      private final long _n;
+      private final long _stride;
+
+      Scatter(long n) {
+         long stride = 1000003L % n;
+         while (n > 1 && (stride == 0 || gcd(stride, n) != 1))
+            ++stride;
+         this._n = n;
+         this._stride = Math.max(stride, 1);
+      }//end Scatter
+
+      int id(int rank) {
+         return (int) ((rank - 1) * this._stride % this._n) + 1;
+      }//end id
+
+      private static long gcd(long a, long b) {
+         return b == 0 ? a : gcd(b, a % b);
+      }//end gcd
+   }//end Scatter
+
+   static final String[][] CITIES = {
+      { "Riverside", "California" }, { "Los Angeles", "California" }, { "San Diego", "California" },
+      { "San Jose", "California" }, { "Houston", "Texas" }, { "Austin", "Texas" }, { "Dallas", "Texas" },
+      { "New York City", "New York" }, { "Buffalo", "New York" }, { "Chicago", "Illinois" },
+      { "Phoenix", "Arizona" }, { "Seattle", "Washington" }, { "Miami", "Florida" },
+      { "Orlando", "Florida" }, { "Denver", "Colorado" }, { "Atlanta", "Georgia" },
+      { "Boston", "Massachusetts" }, { "Portland", "Oregon" }, { "Las Vegas", "Nevada" },
+      { "Philadelphia", "Pennsylvania" }
+   };
+
+   static final String[] STREETS = {
+      "Main", "Oak", "Pine", "Maple", "Cedar", "Elm", "Washington", "Lake", "Hill", "Park", "Sunset", "Bunker Hill"
+   };
+
+   static final String[] SUFFIXES = { "Street", "Avenue", "Road", "Center", "Court", "Way", "Plaza" };
+
+   static final String[][] MENU = {
+      { "Cheese Pizza", "entree", "Cheese, Bread, Tomato Sauce", "999" },
+      { "Pepperoni Pizza", "entree", "Cheese, Bread, Tomato Sauce, Pepperoni", "1099" },
+      { "Hawaiian Pizza", "entree", "Cheese, Bread, Tomato Sauce, Ham, Pineapple", "1199" },
+      { "Veggie Pizza", "entree", "Cheese, Bread, Tomato Sauce, Peppers, Onions, Olives", "1149" },
+      { "Garlic Knots", "sides", "Bread, Garlic, Butter", "499" },
+      { "Chicken Wings", "sides", "Chicken, Buffalo Sauce", "799" },
+      { "Caesar Salad", "sides", "Lettuce, Croutons, Parmesan, Caesar Dressing", "649" },
+      { "Breadsticks", "sides", "Bread, Butter, Parmesan", "399" },
+      { "Lemonade", "drinks", "Lemon, Sugar, Water", "199" },
+      { "Sprite", "drinks", "Sprite", "199" },
+      { "Coke", "drinks", "Coke", "199" },
+      { "Iced Tea", "drinks", "Tea, Ice", "179" }
+   };
+
+   // relative order volume of each hour of the day: lunch and dinner peaks.
+   static final int[] HOUR_WEIGHTS = { 1, 1, 0, 0, 0, 0, 1, 2, 3, 4, 6, 14, 16, 10, 6, 5, 8, 16, 20, 16, 10, 6, 4, 2 };
+
+   static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+   int users = 100000;
+   int stores = 1000;
+   int items = MENU.length;
+   long orders = 1000000;
+   double lines = 4.0;
+   int days = 365;
+   double skew = 1.1;
+   long seed = 42;
+   LocalDateTime end = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+   private final int[] _hourCumulative = new int[HOUR_WEIGHTS.length];
+
+   DataGenerator() {
+      int total = 0;
+      for (int i = 0; i < HOUR_WEIGHTS.length; ++i)
+         this._hourCumulative[i] = total += HOUR_WEIGHTS[i];
+   }//end DataGenerator
+
+   private static Writer open(File dir, String name, String header) throws IOException {
+      Writer out = new BufferedWriter(new OutputStreamWriter(
+         new FileOutputStream(new File(dir, name)), StandardCharsets.UTF_8), 1 << 20);
+      out.write(header);
+      out.write('\n');
+      return out;
+   }//end open
+
+   /**
+    * Appends a field quoted the way COPY ... CSV reads it back.
+    */
+   private static void field(Writer out, String value, boolean last) throws IOException {
+      if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0) {
+         out.write('"');
+         out.write(value.replace("\"", "\"\""));
+         out.write('"');
+      } else {
+         out.write(value);
+      }//end if
+      out.write(last ? '\n' : ',');
+   }//end field
+
+   private static String cents(long cents) {
+      return (cents / 100) + "." + (cents % 100 < 10 ? "0" : "") + (cents % 100);
+   }//end cents
+
+   static String login(int id) { return "user" + id; }
+
+   String itemName(int id) {
+      String[] base = MENU[(id - 1) % MENU.length];
+      int round = (id - 1) / MENU.length;
+      return round == 0 ? base[0] : base[0] + " #" + (round + 1);
+   }//end itemName
+
+   long itemPrice(int id) {
+      return Long.parseLong(MENU[(id - 1) % MENU.length][3]) + 50L * ((id - 1) / MENU.length);
+   }//end itemPrice
+
+   private void writeItems(File dir) throws IOException {
+      try (Writer out = open(dir, "items.csv", "itemName,\"ingredients\",typeOfItem,price,\"description\"")) {
+         for (int id = 1; id <= this.items; ++id) {
+            String[] base = MENU[(id - 1) % MENU.length];
+            field(out, itemName(id), false);
+            field(out, base[2], false);
+            field(out, base[1], false);
+            field(out, cents(itemPrice(id)), false);
+            field(out, "a house favorite", true);
+         }//end for
+      }//end try
+   }//end writeItems
+
+   private void writeStores(File dir, SplittableRandom random) throws IOException {
+      try (Writer out = open(dir, "store.csv", "storeID,address,city,state,isOpen,reviewScore")) {
+         for (int id = 1; id <= this.stores; ++id) {
+            String[] city = CITIES[random.nextInt(CITIES.length)];
+            field(out, Integer.toString(id), false);
+            field(out, (1 + random.nextInt(99999)) + " " + STREETS[random.nextInt(STREETS.length)] + " "
+                       + SUFFIXES[random.nextInt(SUFFIXES.length)], false);
+            field(out, city[0], false);
+            field(out, city[1], false);
+            field(out, random.nextInt(10) == 0 ? "no" : "yes", false);
+            field(out, Integer.toString(1 + random.nextInt(5)), true);
+         }//end for
+      }//end try
+   }//end writeStores
+
+   private void writeUsers(File dir, SplittableRandom random) throws IOException {
+      try (Writer out = open(dir, "users.csv", "login,password,role,favoriteItems,phoneNum")) {
+         Zipf favorites = new Zipf(this.items, this.skew);
+         for (int id = 1; id <= this.users; ++id) {
+            int r = random.nextInt(1000);
+            field(out, login(id), false);
+            field(out, Long.toString(random.nextLong() & Long.MAX_VALUE, 36), false);
+            field(out, r == 0 ? "manager" : r < 20 ? "driver" : "customer", false);
+            field(out, itemName(favorites.next(random)), false);
+            field(out, String.format("%03d-%03d-%04d", 200 + random.nextInt(800),
+                                     random.nextInt(1000), random.nextInt(10000)), true);
+         }//end for
+      }//end try
+   }//end writeUsers
+
+   private int hour(SplittableRandom random) {
+      int pick = random.nextInt(this._hourCumulative[this._hourCumulative.length - 1]);
+      int hour = 0;
+      while (this._hourCumulative[hour] <= pick)
+         ++hour;
+      return hour;
+   }//end hour
+
+   private void writeOrders(File dir, SplittableRandom random) throws IOException {
+      Zipf customers = new Zipf(this.users, this.skew);
+      Zipf stores = new Zipf(this.stores, this.skew);
+      Zipf items = new Zipf(this.items, this.skew);
+      Scatter customerIds = new Scatter(this.users);
+      Scatter storeIds = new Scatter(this.stores);
+      LocalDateTime start = this.end.minusDays(this.days);
+      // extra lines per order are geometric, so the mean is this.lines
+      double more = this.lines <= 1 ? 0 : 1.0 - 1.0 / this.lines;
+      int maxLines = Math.min(this.items, 50);
+      int[] lineItems = new int[maxLines];
+      int[] lineQuantities = new int[maxLines];
+
+      try (Writer orderOut = open(dir, "foodorder.csv", "orderID,login,storeID,totalPrice,\"orderTimestamp\",orderStatus");
+           Writer lineOut = open(dir, "itemsinorder.csv", "orderID,itemName,quantity")) {
+         for (long i = 0; i < this.orders; ++i) {
+            long orderID = 10000 + i;
+            if (orderID > Integer.MAX_VALUE)
+               throw new IllegalArgumentException("Too many orders for an integer orderID");
+
+            int count = 1;
+            while (count < maxLines && random.nextDouble() < more)
+               ++count;
+            long total = 0;
+            for (int k = 0; k < count; ++k) {
+               int item;
+               boolean repeated;
+               do {
+                  item = items.next(random);
+                  repeated = false;
+                  for (int j = 0; j < k && !repeated; ++j)
+                     repeated = lineItems[j] == item;
+               } while (repeated);
+               lineItems[k] = item;
+               lineQuantities[k] = random.nextInt(10) < 7 ? 1 : 2 + random.nextInt(3);
+               total += itemPrice(item) * lineQuantities[k];
+            }//end for
+
+            // orders advance through the days in ID order, peaking at meal times
+            long day = i * this.days / Math.max(this.orders, 1);
+            LocalDateTime time = start.plusDays(day).plusHours(hour(random))
+                                      .plusMinutes(random.nextInt(60)).plusSeconds(random.nextInt(60));
+            boolean recent = day >= this.days - 1;
+
+            field(orderOut, Long.toString(orderID), false);
+            field(orderOut, login(customerIds.id(customers.next(random))), false);
+            field(orderOut, Integer.toString(storeIds.id(stores.next(random))), false);
+            field(orderOut, cents(total), false);
+            field(orderOut, TIMESTAMP.format(time), false);
+            field(orderOut, recent && random.nextInt(4) == 0 ? "incomplete" : "complete", true);
+            for (int k = 0; k < count; ++k) {
+               field(lineOut, Long.toString(orderID), false);
+               field(lineOut, itemName(lineItems[k]), false);
+               field(lineOut, Integer.toString(lineQuantities[k]), true);
+            }//end for
+
+            if ((i + 1) % 1000000 == 0)
+               System.out.println((i + 1) + " orders written");
+         }//end for
+      }//end try
+   }//end writeOrders
+
+   /**
+    * Writes the five CSV files into the directory.
+    */
+   void generate(File dir) throws IOException {
+      if (!dir.isDirectory() && !dir.mkdirs())
+         throw new IOException("Cannot create " + dir);
+      // each table draws from its own stream, so changing one table's size
+      // does not change the rows of the others
+      SplittableRandom root = new SplittableRandom(this.seed);
+      SplittableRandom storeRandom = root.split();
+      SplittableRandom userRandom = root.split();
+      SplittableRandom orderRandom = root.split();
+      writeItems(dir);
+      writeStores(dir, storeRandom);
+      writeUsers(dir, userRandom);
+      writeOrders(dir, orderRandom);
+   }//end generate
+
+   public static void main(String[] args) {
+      DataGenerator generator = new DataGenerator();
+      File dir = null;
+      try{
+         for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+               if (dir != null)
+                  throw new IllegalArgumentException("Unexpected argument " + arg);
+               dir = new File(arg);
+               continue;
+            }//end if
+            if (i + 1 >= args.length)
+               throw new IllegalArgumentException(arg + " needs a value");
+            String value = args[++i];
+            if (arg.equals("--users")) generator.users = Integer.parseInt(value);
+            else if (arg.equals("--stores")) generator.stores = Integer.parseInt(value);
+            else if (arg.equals("--items")) generator.items = Integer.parseInt(value);
+            else if (arg.equals("--orders")) generator.orders = Long.parseLong(value);
+            else if (arg.equals("--lines")) generator.lines = Double.parseDouble(value);
+            else if (arg.equals("--days")) generator.days = Integer.parseInt(value);
+            else if (arg.equals("--skew")) generator.skew = Double.parseDouble(value);
+            else if (arg.equals("--seed")) generator.seed = Long.parseLong(value);
+            else throw new IllegalArgumentException("Unknown option " + arg);
+         }//end for
+         if (dir == null || generator.users < 1 || generator.stores < 1 || generator.items < 1
+             || generator.orders < 0 || generator.days < 1 || generator.lines < 1)
+            throw new IllegalArgumentException("Missing output directory or invalid size");
+      }catch (IllegalArgumentException e){
+         System.err.println(e.getMessage());
+         System.err.println(
+            "Usage: java [-classpath <classpath>] " + DataGenerator.class.getName() +
+            " <outDir> [--users n] [--stores n] [--items n] [--orders n] [--lines avg]" +
+            " [--days n] [--skew s] [--seed n]");
+         System.exit(1);
+      }//end try
+
+      try{
+         long start = System.nanoTime();
+         generator.generate(dir);
+         System.out.println(String.format("%d orders written to %s in %.1f s",
+                                          generator.orders, dir, (System.nanoTime() - start) / 1e9));
+      }catch (IOException e){
+         System.err.println(e.getMessage());
+         System.exit(1);
+      }//end try
+   }//end main
+
+}//end DataGenerator
@@ -0,0 +1,234 @@
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class defines a minimal JSON reader and writer for the HTTP API.
+ * Objects are read as LinkedHashMaps, arrays as ArrayLists, numbers as
+ * BigDecimals, and true/false/null as Boolean and null.
+ *
+ */
+public class Json {
+
+   private final String _text;
+   private int _pos = 0;
+
+   private Json(String text) {
+      this._text = text;
+   }
+
+   /**
+    * Parses a JSON document.
+    *
+    * @param text the document
+    * @return the parsed value
+    * @throws IllegalArgumentException when the text is not valid JSON
+    */
+   public static Object parse(String text) {
+      Json reader = new Json(text);
+      Object value = reader.readValue();
+      reader.skipWhitespace();
+      if (reader._pos != text.length())
+         throw reader.error("Unexpected trailing characters");
+      return value;
+   }//end parse
+
+   /**
+    * Serializes maps, lists, strings, numbers, booleans and null.
+    *
+    * @param value the value to write
+    * @return the JSON text
+    */
+   public static String write(Object value) {
+      StringBuilder out = new StringBuilder();
+      write(value, out);
+      return out.toString();
+   }//end write
+
+   private static void write(Object value, StringBuilder out) {
+      if (value == null) {
+         out.append("null");
+      } else if (value instanceof String) {
+         quote((String) value, out);
+      } else if (value instanceof Number || value instanceof Boolean) {
+         out.append(value.toString());
+      } else if (value instanceof Map) {
+         out.append('{');
+         Iterator<? extends Map.Entry<?, ?>> it = ((Map<?, ?>) value).entrySet().iterator();
+         while (it.hasNext()) {
+            Map.Entry<?, ?> entry = it.next();
+            quote(String.valueOf(entry.getKey()), out);
+            out.append(':');
+            write(entry.getValue(), out);
+            if (it.hasNext())
+               out.append(',');
+         }//end while
+         out.append('}');
+      } else if (value instanceof Iterable) {
+         out.append('[');
+         Iterator<?> it = ((Iterable<?>) value).iterator();
+         while (it.hasNext()) {
+            write(it.next(), out);
+            if (it.hasNext())
+               out.append(',');
+         }//end while
+         out.append(']');
+      } else {
+         quote(value.toString(), out);
+      }//end if
+   }//end write
+
+   private static void quote(String s, StringBuilder out) {
+      out.append('"');
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': out.append("\\\""); break;
+            case '\\': out.append("\\\\"); break;
+            case '\n': out.append("\\n"); break;
+            case '\r': out.append("\\r"); break;
+            case '\t': out.append("\\t"); break;
+            default:
+               if (c < 0x20)
+                  out.append(String.format("\\u%04x", (int) c));
+               else
+                  out.append(c);
+         }//end switch
+      }//end for
+      out.append('"');
+   }//end quote
+
+   private IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at position " + this._pos);
+   }//end error
+
+   private void skipWhitespace() {
+      while (this._pos < this._text.length() && Character.isWhitespace(this._text.charAt(this._pos)))
+         ++this._pos;
+   }//end skipWhitespace
+
+   private char peek() {
+      skipWhitespace();
+      if (this._pos >= this._text.length())
+         throw error("Unexpected end of input");
+      return this._text.charAt(this._pos);
+   }//end peek
+
+   private void expect(char c) {
+      if (peek() != c)
+         throw error("Expected '" + c + "'");
+      ++this._pos;
+   }//end expect
+
+   private Object readValue() {
+      char c = peek();
+      if (c == '{')
+         return readObject();
+      if (c == '[')
+         return readArray();
+      if (c == '"')
+         return readString();
+      if (this._text.startsWith("true", this._pos)) {
+         this._pos += 4;
+         return Boolean.TRUE;
+      }
+      if (this._text.startsWith("false", this._pos)) {
+         this._pos += 5;
+         return Boolean.FALSE;
+      }
+      if (this._text.startsWith("null", this._pos)) {
+         this._pos += 4;
+         return null;
+      }
+      return readNumber();
+   }//end readValue
+
+   private Map<String, Object> readObject() {
+      Map<String, Object> object = new LinkedHashMap<String, Object>();
+      expect('{');
+      if (peek() == '}') {
+         ++this._pos;
+         return object;
+      }//end if
+      while (true) {
+         if (peek() != '"')
+            throw error("Expected a member name");
+         String name = readString();
+         expect(':');
+         object.put(name, readValue());
+         if (peek() == ',') {
+            ++this._pos;
+            continue;
+         }//end if
+         expect('}');
+         return object;
+      }//end while
+   }//end readObject
+
+   private List<Object> readArray() {
+      List<Object> array = new ArrayList<Object>();
+      expect('[');
+      if (peek() == ']') {
+         ++this._pos;
+         return array;
+      }//end if
+      while (true) {
+         array.add(readValue());
+         if (peek() == ',') {
+            ++this._pos;
+            continue;
+         }//end if
+         expect(']');
+         return array;
+      }//end while
+   }//end readArray
+
+   private String readString() {
+      expect('"');
+      StringBuilder out = new StringBuilder();
+      while (this._pos < this._text.length()) {
+         char c = this._text.charAt(this._pos++);
+         if (c == '"')
+            return out.toString();
+         if (c != '\\') {
+            out.append(c);
+            continue;
+         }//end if
+         if (this._pos >= this._text.length())
+            break;
+         char e = this._text.charAt(this._pos++);
+         switch (e) {
+            case 'b': out.append('\b'); break;
+            case 'f': out.append('\f'); break;
+            case 'n': out.append('\n'); break;
+            case 'r': out.append('\r'); break;
+            case 't': out.append('\t'); break;
+            case 'u':
+               if (this._pos + 4 > this._text.length())
+                  throw error("Bad unicode escape");
+               out.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+               this._pos += 4;
+               break;
+            default: out.append(e); break;
+         }//end switch
+      }//end while
+      throw error("Unterminated string");
+   }//end readString
+
+   private BigDecimal readNumber() {
+      int start = this._pos;
+      while (this._pos < this._text.length() && "+-0123456789.eE".indexOf(this._text.charAt(this._pos)) >= 0)
+         ++this._pos;
+      if (start == this._pos)
+         throw error("Unexpected character");
+      try{
+         return new BigDecimal(this._text.substring(start, this._pos));
+      }catch (NumberFormatException e){
+         throw error("Bad number");
+      }//end try
+   }//end readNumber
+
+}//end Json
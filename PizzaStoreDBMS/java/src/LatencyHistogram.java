@@ -0,0 +1,79 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records latencies in microseconds into log-linear buckets:
+ * 32 buckets per power of two, so any recorded value is reported within
+ * about 3% of its true value while memory stays fixed.  Recording is a
+ * single atomic increment and may happen from many threads at once.
+ *
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BITS = 5;
+   private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+   private final AtomicLongArray _counts = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+   static int index(long micros) {
+      if (micros < SUB_BUCKETS)
+         return (int) Math.max(micros, 0);
+      int exponent = 63 - Long.numberOfLeadingZeros(micros);
+      int mantissa = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BITS + 1) * SUB_BUCKETS + mantissa;
+   }//end index
+
+   // the midpoint of the values counted in a bucket
+   static long value(int index) {
+      if (index < SUB_BUCKETS)
+         return index;
+      int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+      long low = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+      return low + (1L << (exponent - SUB_BITS)) / 2;
+   }//end value
+
+   /**
+    * @param micros the latency to record
+    */
+   public void record(long micros) {
+      this._counts.incrementAndGet(index(micros));
+   }//end record
+
+   /**
+    * @return the number of recorded values
+    */
+   public long count() {
+      long count = 0;
+      for (int i = 0; i < this._counts.length(); ++i)
+         count += this._counts.get(i);
+      return count;
+   }//end count
+
+   /**
+    * @param quantile between 0 and 1, e.g. 0.99
+    * @return the latency in microseconds that this share of the values do not exceed, or 0 if empty
+    */
+   public long percentile(double quantile) {
+      long total = count();
+      if (total == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(quantile * total));
+      long seen = 0;
+      for (int i = 0; i < this._counts.length(); ++i) {
+         seen += this._counts.get(i);
+         if (seen >= rank)
+            return value(i);
+      }//end for
+      return value(this._counts.length() - 1);
+   }//end percentile
+
+   /**
+    * @return the largest recorded latency, to the bucket's precision
+    */
+   public long max() {
+      for (int i = this._counts.length() - 1; i >= 0; --i)
+         if (this._counts.get(i) > 0)
+            return value(i);
+      return 0;
+   }//end max
+
+}//end LatencyHistogram
@@ -0,0 +1,281 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This program drives the order workflows from many simulated users at
+ * once: customers placing orders, viewing their recent orders and browsing
+ * the menu, and drivers flipping order statuses, through the same
+ * PizzaStore operations the console menus call.
+ *
+ * With --rate, requests arrive on a Poisson schedule at that many per
+ * second whatever the response times, and latency is measured from the
+ * scheduled arrival, so queueing behind a slow database is counted.
+ * Without it every user runs a closed loop with --think milliseconds
+ * between its requests.  Throughput, p50/p99/p99.9 latency and the error
+ * and deadlock or serialization failure counts are reported per operation.
+ * Users share the connection pool, sized with -Dpizzastore.pool.max.
+ *
+ *   java LoadTest <dbname> <port> <user> [--users n] [--rate n] [--think ms]
+ *        [--duration s] [--mix placeOrder=30,recentOrders=30,updateStatus=10,viewMenu=30]
+ *
+ */
+public class LoadTest {
+
+   static final String[] OPERATIONS = { "placeOrder", "recentOrders", "updateStatus", "viewMenu" };
+
+   /**
+    * The counters of one operation.
+    */
+   static final class Stats {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong errors = new AtomicLong();
+      final AtomicLong deadlocks = new AtomicLong();
+   }//end Stats
+
+   private final PizzaStore _esql;
+   private final Benchmark.Samples _samples;
+   private final Stats[] _stats = new Stats[OPERATIONS.length];
+   private final int[] _mixCumulative = new int[OPERATIONS.length];
+
+   // orders placed during the run, which drivers then pick up
+   private final AtomicLongArray _placed = new AtomicLongArray(1024);
+   private final AtomicInteger _placedCount = new AtomicInteger();
+
+   LoadTest(PizzaStore esql, Benchmark.Samples samples, int[] mix) {
+      this._esql = esql;
+      this._samples = samples;
+      int total = 0;
+      for (int i = 0; i < OPERATIONS.length; ++i) {
+         this._stats[i] = new Stats();
+         this._mixCumulative[i] = total += mix[i];
+      }//end for
+      if (total <= 0)
+         throw new IllegalArgumentException("The mix needs at least one operation");
+   }//end LoadTest
+
+   int pick(SplittableRandom random) {
+      int r = random.nextInt(this._mixCumulative[this._mixCumulative.length - 1]);
+      int op = 0;
+      while (this._mixCumulative[op] <= r)
+         ++op;
+      return op;
+   }//end pick
+
+   /**
+    * Runs one operation as the matching console handler would.
+    */
+   void perform(int op, SplittableRandom random) throws SQLException {
+      String login = Benchmark.Samples.pick(this._samples.users, random).get(0);
+      switch (op) {
+         case 0: {
+            Map<String, Integer> cart = new LinkedHashMap<String, Integer>();
+            int lines = 1 + random.nextInt(4);
+            for (int i = 0; i < lines; ++i)
+               cart.put(Benchmark.Samples.pick(this._samples.items, random), 1 + random.nextInt(3));
+            int orderID = this._esql.submitOrder(login, Benchmark.Samples.pick(this._samples.stores, random), cart);
+            int slot = this._placedCount.getAndIncrement();
+            this._placed.set(slot & (this._placed.length() - 1), orderID);
+            break;
+         }
+         case 1:
+            // like the console, on the read replica when one is configured
+            this._esql.beginRead(login);
+            try{
+               this._esql.orders(login, 5);
+            }finally{
+               this._esql.endRead();
+            }//end try
+            break;
+         case 2: {
+            int placed = Math.min(this._placedCount.get(), this._placed.length());
+            int orderID = placed > 0 && random.nextBoolean()
+               ? (int) this._placed.get(random.nextInt(placed))
+               : this._samples.orders.getInt(this._samples.pickOrder(random), 0);
+            String status = this._esql.orderStatus(orderID);
+            if (status != null)
+               this._esql.setOrderStatus(orderID, status.equals("complete") ? "incomplete" : "complete");
+            break;
+         }
+         default: {
+            List<String> types = this._esql.itemTypes();
+            String type = random.nextBoolean() ? null : types.get(random.nextInt(types.size()));
+            this._esql.menuItems(type, null, random.nextInt(3));
+            break;
+         }
+      }//end switch
+   }//end perform
+
+   /**
+    * Runs and times one operation scheduled for the given instant.
+    */
+   void execute(int op, long scheduledNanos, SplittableRandom random) {
+      Stats stats = this._stats[op];
+      try{
+         perform(op, random);
+      }catch (SQLException e){
+         // 40P01 deadlock_detected, 40001 serialization_failure
+         if ("40P01".equals(e.getSQLState()) || "40001".equals(e.getSQLState()))
+            stats.deadlocks.incrementAndGet();
+         else
+            stats.errors.incrementAndGet();
+      }catch (RuntimeException e){
+         stats.errors.incrementAndGet();
+      }//end try
+      stats.latency.record((System.nanoTime() - scheduledNanos) / 1000);
+   }//end execute
+
+   /**
+    * Runs the test until the deadline.
+    *
+    * @param users the number of concurrent simulated users
+    * @param rate arrivals per second, or 0 for closed loops
+    * @param thinkMillis the pause between a user's requests in closed loops
+    */
+   void run(int users, final double rate, final long thinkMillis, long durationMillis) throws InterruptedException {
+      final long deadline = System.nanoTime() + durationMillis * 1000000L;
+      final LinkedBlockingQueue<long[]> arrivals = new LinkedBlockingQueue<long[]>();
+      List<Thread> threads = new ArrayList<Thread>();
+
+      for (int u = 0; u < users; ++u) {
+         final SplittableRandom random = new SplittableRandom(1000 + u);
+         Thread user = new Thread(() -> {
+            try{
+               while (System.nanoTime() < deadline) {
+                  if (rate > 0) {
+                     long[] arrival = arrivals.poll(100, TimeUnit.MILLISECONDS);
+                     if (arrival != null)
+                        execute((int) arrival[0], arrival[1], random);
+                  } else {
+                     execute(pick(random), System.nanoTime(), random);
+                     if (thinkMillis > 0)
+                        Thread.sleep(thinkMillis);
+                  }//end if
+               }//end while
+            }catch (InterruptedException e){
+               // stopped
+            }//end try
+         }, "user-" + u);
+         user.setDaemon(true);
+         threads.add(user);
+         user.start();
+      }//end for
+
+      if (rate > 0) {
+         SplittableRandom random = new SplittableRandom(7);
+         long next = System.nanoTime();
+         while (next < deadline) {
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+               LockSupport.parkNanos(wait);
+            arrivals.add(new long[] { pick(random), next });
+            // exponential gaps give Poisson arrivals
+            next += (long) (-Math.log(1.0 - random.nextDouble()) / rate * 1e9);
+         }//end while
+      }//end if
+
+      for (Thread user : threads)
+         user.join();
+      if (!arrivals.isEmpty())
+         System.out.println(arrivals.size() + " scheduled requests were not started before the end");
+   }//end run
+
+   void report(long durationMillis) {
+      System.out.println(String.format("%-13s %9s %9s %9s %9s %9s %9s %7s %9s", "operation", "count", "ops/s",
+                                       "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "deadlocks"));
+      for (int i = 0; i < OPERATIONS.length; ++i) {
+         Stats stats = this._stats[i];
+         long count = stats.latency.count();
+         if (count == 0)
+            continue;
+         System.out.println(String.format("%-13s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d %9d", OPERATIONS[i],
+                                          count, count * 1000.0 / durationMillis,
+                                          stats.latency.percentile(0.50) / 1000.0,
+                                          stats.latency.percentile(0.99) / 1000.0,
+                                          stats.latency.percentile(0.999) / 1000.0,
+                                          stats.latency.max() / 1000.0,
+                                          stats.errors.get(), stats.deadlocks.get()));
+      }//end for
+   }//end report
+
+   static int[] parseMix(String text) {
+      int[] mix = new int[OPERATIONS.length];
+      for (String part : text.split(",")) {
+         String[] entry = part.split("=");
+         int op = -1;
+         for (int i = 0; i < OPERATIONS.length; ++i)
+            if (OPERATIONS[i].equals(entry[0].trim()))
+               op = i;
+         if (op < 0 || entry.length != 2)
+            throw new IllegalArgumentException("Bad mix entry " + part);
+         mix[op] = Integer.parseInt(entry[1].trim());
+         if (mix[op] < 0)
+            throw new IllegalArgumentException("Bad mix entry " + part);
+      }//end for
+      return mix;
+   }//end parseMix
+
+   public static void main(String[] args) {
+      List<String> positional = new ArrayList<String>();
+      int users = 200;
+      double rate = 0;
+      long thinkMillis = 100;
+      long durationMillis = 60000;
+      int[] mix = parseMix("placeOrder=30,recentOrders=30,updateStatus=10,viewMenu=30");
+      try{
+         for (int i = 0; i < args.length; ++i) {
+            if (!args[i].startsWith("--")) {
+               positional.add(args[i]);
+            } else if (i + 1 >= args.length) {
+               throw new IllegalArgumentException(args[i] + " needs a value");
+            } else if (args[i].equals("--users")) {
+               users = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--rate")) {
+               rate = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--think")) {
+               thinkMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--duration")) {
+               durationMillis = (long) (Double.parseDouble(args[++i]) * 1000);
+            } else if (args[i].equals("--mix")) {
+               mix = parseMix(args[++i]);
+            } else {
+               throw new IllegalArgumentException("Unknown option " + args[i]);
+            }//end if
+         }//end for
+         if (positional.size() != 3 || users < 1 || rate < 0 || durationMillis <= 0)
+            throw new IllegalArgumentException("Missing database arguments or invalid option");
+      }catch (IllegalArgumentException e){
+         System.err.println(e.getMessage());
+         System.err.println(
+            "Usage: java [-classpath <classpath>] " + LoadTest.class.getName() +
+            " <dbname> <port> <user> [--users n] [--rate n] [--think ms] [--duration s]" +
+            " [--mix placeOrder=30,recentOrders=30,updateStatus=10,viewMenu=30]");
+         System.exit(1);
+      }//end try
+
+      PizzaStore esql = null;
+      try{
+         esql = new PizzaStore(positional.get(0), positional.get(1), positional.get(2), "");
+         LoadTest test = new LoadTest(esql, new Benchmark.Samples(esql), mix);
+         System.out.println("Running " + users + " users for " + durationMillis / 1000.0 + " s"
+                            + (rate > 0 ? " at " + rate + " requests/s" : " in closed loops"));
+         test.run(users, rate, thinkMillis, durationMillis);
+         test.report(durationMillis);
+      }catch (Exception e){
+         System.err.println(e.getMessage());
+      }finally{
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+   }//end main
+
+}//end LoadTest
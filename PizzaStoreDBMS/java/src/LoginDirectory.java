@@ -0,0 +1,264 @@
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class answers "is there a user with this login?" without the
+ * database whenever it can.  A Bloom filter over every Users.login value
+ * says when a login definitely does not exist, and a short-lived negative
+ * cache remembers logins the database has just reported unknown, so
+ * repeated attempts with made-up usernames cost nothing.
+ *
+ * Logins created or renamed by this process are added to the filter as
+ * they are written, together with the Logins version of CacheVersion each
+ * write produced.  When the poller sees a Logins version this process did
+ * not write, another process has added a login: the filter is no longer
+ * trusted and is rebuilt from Users at most every
+ * pizzastore.login.rebuildMillis (default one minute); meanwhile lookups
+ * go to the database.  The negative cache keeps logins for
+ * pizzastore.login.negativeTtlMillis (default 30 s) and at most
+ * pizzastore.login.negativeMax of them (default 10000), evicting the
+ * oldest first.  Each entry is tagged with the directory's version when
+ * its lookup started, and an entry from before a login was added is
+ * ignored, so a lookup racing with the creation of the login cannot hide
+ * it.
+ *
+ */
+public class LoginDirectory {
+
+   static final long REBUILD_MILLIS = Long.getLong("pizzastore.login.rebuildMillis", 60000L);
+   static final long NEGATIVE_TTL_MILLIS = Long.getLong("pizzastore.login.negativeTtlMillis", 30000L);
+   static final int NEGATIVE_MAX = Integer.getInteger("pizzastore.login.negativeMax", 10000);
+
+   // a poll that sees more bumps than this rebuilds without checking them.
+   static final int OWN_VERSIONS_CHECKED = 1000;
+
+   // false positive rate of a filter holding its capacity.
+   static final double FALSE_POSITIVE_RATE = 0.01;
+
+   /**
+    * A Bloom filter sized for twice the logins it was built with, using
+    * double hashing of a 64-bit FNV-1a hash.
+    */
+   static final class Filter {
+      final AtomicLongArray bits;
+      final long size;
+      final int hashes;
+      final long capacity;
+      final AtomicLong count = new AtomicLong();
+
+      Filter(long expected) {
+         this.capacity = Math.max(1024, expected * 2);
+         double ln2 = Math.log(2);
+         long m = (long) Math.ceil(-this.capacity * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+         this.bits = new AtomicLongArray((int) ((m + 63) / 64));
+         this.size = this.bits.length() * 64L;
+         this.hashes = Math.max(1, (int) Math.round((double) this.size / this.capacity * ln2));
+      }//end Filter
+
+      void add(String login) {
+         long hash = hash(login);
+         for (int i = 0; i < this.hashes; ++i) {
+            long bit = index(hash, i);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << (bit & 63);
+            long old;
+            do {
+               old = this.bits.get(word);
+            } while ((old & mask) == 0 && !this.bits.compareAndSet(word, old, old | mask));
+         }//end for
+         this.count.incrementAndGet();
+      }//end add
+
+      boolean mightContain(String login) {
+         long hash = hash(login);
+         for (int i = 0; i < this.hashes; ++i) {
+            long bit = index(hash, i);
+            if ((this.bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0)
+               return false;
+         }//end for
+         return true;
+      }//end mightContain
+
+      private long index(long hash, int i) {
+         long combined = (hash >>> 32) + i * (hash & 0xffffffffL | 1);
+         return (combined & Long.MAX_VALUE) % this.size;
+      }//end index
+
+      private static long hash(String s) {
+         long h = 0xcbf29ce484222325L;
+         for (int i = 0; i < s.length(); ++i) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+         }//end for
+         // final mix so both halves depend on every character
+         h ^= h >>> 33;
+         h *= 0xff51afd7ed558ccdL;
+         h ^= h >>> 33;
+         return h;
+      }//end hash
+   }//end Filter
+
+   /**
+    * A login the database reported unknown.
+    */
+   private static final class Unknown {
+      final long until;
+      final long version;
+
+      Unknown(long until, long version) {
+         this.until = until;
+         this.version = version;
+      }//end Unknown
+   }//end Unknown
+
+   private final PizzaStore _esql;
+   private volatile Filter _filter = null;
+   private volatile boolean _stale = false;
+   private long _builtAt = 0;
+
+   // Logins versions written by this process and not yet seen by the poller.
+   private final ConcurrentSkipListSet<Long> _ownVersions = new ConcurrentSkipListSet<Long>();
+
+   // moves whenever a login may have been added, see version().
+   private final AtomicLong _version = new AtomicLong();
+
+   // logins the database reported unknown, oldest first; guarded by itself.
+   private final LinkedHashMap<String, Unknown> _unknown = new LinkedHashMap<String, Unknown>() {
+      private static final long serialVersionUID = 1L;
+
+      protected boolean removeEldestEntry(Map.Entry<String, Unknown> eldest) {
+         return size() > NEGATIVE_MAX;
+      }
+   };
+
+   public LoginDirectory(PizzaStore esql) {
+      this._esql = esql;
+   }//end LoginDirectory
+
+   /**
+    * @return a filter that holds every login, or null when the current one
+    *         is stale and may not be rebuilt yet
+    * @throws java.sql.SQLException when the logins cannot be loaded
+    */
+   private Filter filter() throws SQLException {
+      Filter filter = this._filter;
+      if (filter != null && !this._stale)
+         return filter;
+      synchronized (this) {
+         long now = System.currentTimeMillis();
+         if (this._filter != null && this._stale && now - this._builtAt < REBUILD_MILLIS)
+            return null;
+         if (this._filter == null || this._stale) {
+            ResultTable logins = this._esql.onPrimary(() -> this._esql.executeQueryAndReturnTable(
+               "SELECT login FROM Users"));
+            Filter built = new Filter(logins.rowCount());
+            for (int i = 0; i < logins.rowCount(); ++i)
+               built.add(logins.getString(i, 0));
+            this._filter = built;
+            this._stale = false;
+            this._builtAt = now;
+         }//end if
+         return this._filter;
+      }
+   }//end filter
+
+   /**
+    * @return false when the login certainly does not exist, true when the
+    *         database has to be asked
+    * @throws java.sql.SQLException when the logins cannot be loaded
+    */
+   public boolean mightExist(String login) throws SQLException {
+      synchronized (this._unknown) {
+         Unknown unknown = this._unknown.get(login);
+         if (unknown != null) {
+            if (unknown.until > System.currentTimeMillis() && unknown.version == this._version.get())
+               return false;
+            this._unknown.remove(login);
+         }//end if
+      }
+      Filter filter = filter();
+      return filter == null || filter.mightContain(login);
+   }//end mightExist
+
+   /**
+    * @return the version to pass to unknown, read before the database is
+    *         asked about a login
+    */
+   public long version() {
+      return this._version.get();
+   }//end version
+
+   /**
+    * Remembers that the database has no user with this login, unless a
+    * login may have been added since the lookup started.
+    *
+    * @param login the login that was not found
+    * @param version the result of version() before the lookup
+    */
+   public void unknown(String login, long version) {
+      long now = System.currentTimeMillis();
+      synchronized (this._unknown) {
+         if (version != this._version.get())
+            return;
+         // expired entries are the oldest ones
+         Iterator<Unknown> oldest = this._unknown.values().iterator();
+         while (oldest.hasNext() && oldest.next().until <= now)
+            oldest.remove();
+         this._unknown.remove(login);
+         this._unknown.put(login, new Unknown(now + NEGATIVE_TTL_MILLIS, version));
+      }
+   }//end unknown
+
+   /**
+    * Adds a login this process has just inserted or renamed a user to.
+    *
+    * @param login the new login
+    * @param version the Logins version the write bumped CacheVersion to,
+    *        read in the writing transaction, or -1 if versions are not polled
+    */
+   public void wrote(String login, long version) {
+      if (version >= 0)
+         this._ownVersions.add(version);
+      // waits for a rebuild in progress, whose scan may predate the write
+      synchronized (this) {
+         Filter filter = this._filter;
+         if (filter != null) {
+            filter.add(login);
+            if (filter.count.get() > filter.capacity)
+               invalidate();
+         }//end if
+      }
+      // drops the login from the unknown ones, and any lookup of it in flight
+      this._version.incrementAndGet();
+   }//end wrote
+
+   /**
+    * Called by the poller when the Logins version moved.  The filter stays
+    * trusted when every bump in between was one of this process's writes.
+    *
+    * @param from the version seen before, or -1 if none
+    * @param to the version seen now
+    */
+   void changed(long from, long to) {
+      boolean foreign = from < 0 || to < from || to - from > OWN_VERSIONS_CHECKED;
+      for (long v = from + 1; !foreign && v <= to; ++v)
+         foreign = !this._ownVersions.remove(v);
+      this._ownVersions.headSet(to + 1).clear();
+      if (foreign)
+         invalidate();
+   }//end changed
+
+   /**
+    * Stops trusting the filter and the unknown logins.
+    */
+   public synchronized void invalidate() {
+      this._stale = true;
+      this._version.incrementAndGet();
+   }//end invalidate
+
+}//end LoginDirectory
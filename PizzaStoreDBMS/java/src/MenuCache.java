@@ -0,0 +1,198 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps the Items table in memory so menu listings, sorting,
+ * filtering and price lookups need no database round trip.  The menu is
+ * loaded on first use into an immutable snapshot of parallel arrays plus
+ * price-sorted indexes per item type; invalidate() drops the snapshot after
+ * a menu change so the next caller reloads it.
+ *
+ */
+public class MenuCache {
+
+   /**
+    * One loaded copy of the menu.  Arrays are indexed by load position.
+    */
+   static final class Snapshot {
+      final String[] names;
+      final String[] types;
+      final BigDecimal[] prices;
+
+      // all item positions, cheapest first.
+      final int[] byPrice;
+
+      // item positions of each type, cheapest first, types in load order.
+      final LinkedHashMap<String, int[]> byType;
+
+      // item name to load position.
+      final HashMap<String, Integer> byName;
+
+      Snapshot(ResultTable rows) {
+         int n = rows.rowCount();
+         this.names = new String[n];
+         this.types = new String[n];
+         this.prices = new BigDecimal[n];
+         this.byName = new HashMap<String, Integer>(n * 2);
+         Map<String, List<Integer>> buckets = new LinkedHashMap<String, List<Integer>>();
+         for (int i = 0; i < n; ++i) {
+            this.names[i] = rows.getString(i, 0);
+            this.types[i] = rows.getString(i, 1);
+            this.prices[i] = rows.getDecimal(i, 2);
+            this.byName.put(this.names[i], i);
+            List<Integer> bucket = buckets.get(this.types[i]);
+            if (bucket == null) {
+               bucket = new ArrayList<Integer>();
+               buckets.put(this.types[i], bucket);
+            }//end if
+            bucket.add(i);
+         }//end for
+
+         this.byPrice = sortByPrice(allPositions(n));
+         this.byType = new LinkedHashMap<String, int[]>();
+         for (Map.Entry<String, List<Integer>> bucket : buckets.entrySet()) {
+            int[] positions = new int[bucket.getValue().size()];
+            for (int i = 0; i < positions.length; ++i)
+               positions[i] = bucket.getValue().get(i);
+            this.byType.put(bucket.getKey(), sortByPrice(positions));
+         }//end for
+      }//end Snapshot
+
+      private static int[] allPositions(int n) {
+         int[] positions = new int[n];
+         for (int i = 0; i < n; ++i)
+            positions[i] = i;
+         return positions;
+      }//end allPositions
+
+      private int[] sortByPrice(int[] positions) {
+         Integer[] boxed = new Integer[positions.length];
+         for (int i = 0; i < positions.length; ++i)
+            boxed[i] = positions[i];
+         // stable, so equal prices keep their load order
+         Arrays.sort(boxed, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) { return prices[a].compareTo(prices[b]); }
+         });
+         for (int i = 0; i < positions.length; ++i)
+            positions[i] = boxed[i];
+         return positions;
+      }//end sortByPrice
+
+      /**
+       * @return how many of the price-sorted positions are strictly below the cap
+       */
+      int countBelow(int[] sorted, BigDecimal cap) {
+         int lo = 0, hi = sorted.length;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.prices[sorted[mid]].compareTo(cap) < 0)
+               lo = mid + 1;
+            else
+               hi = mid;
+         }//end while
+         return lo;
+      }//end countBelow
+
+      List<String> row(int i) {
+         List<String> row = new ArrayList<String>(3);
+         row.add(this.names[i]);
+         row.add(this.types[i]);
+         row.add(this.prices[i].toPlainString());
+         return row;
+      }//end row
+   }//end Snapshot
+
+   private final PizzaStore _esql;
+   private volatile Snapshot _snapshot = null;
+
+   public MenuCache(PizzaStore esql) {
+      this._esql = esql;
+   }//end MenuCache
+
+   /**
+    * @return the current snapshot, loading the menu if it was invalidated
+    * @throws java.sql.SQLException when the menu cannot be loaded
+    */
+   Snapshot snapshot() throws SQLException {
+      Snapshot snapshot = this._snapshot;
+      if (snapshot != null)
+         return snapshot;
+      synchronized (this) {
+         // from the primary, the replica may not have the latest menu change yet
+         if (this._snapshot == null)
+            this._snapshot = new Snapshot(this._esql.onPrimary(() -> this._esql.executeQueryAndReturnTable(
+               "SELECT itemName, typeOfItem, price FROM Items")));
+         return this._snapshot;
+      }
+   }//end snapshot
+
+   /**
+    * Drops the loaded menu, called after any insert, delete or update of Items.
+    * It waits for a load in progress, which may have read the old rows.
+    */
+   public synchronized void invalidate() {
+      this._snapshot = null;
+   }//end invalidate
+
+   /**
+    * Lists the menu as itemName, typeOfItem and price rows.
+    *
+    * @param type only items of this type, or null for all
+    * @param maxPrice only items cheaper than this, or null for all
+    * @param sort PizzaStore.SORT_NONE, SORT_PRICE_DESC or SORT_PRICE_ASC
+    * @return the matching items
+    */
+   public List<List<String>> items(String type, BigDecimal maxPrice, int sort) throws SQLException {
+      Snapshot menu = snapshot();
+      int[] sorted = menu.byPrice;
+      if (type != null) {
+         sorted = menu.byType.get(type);
+         if (sorted == null)
+            return new ArrayList<List<String>>();
+      }//end if
+      int count = maxPrice == null ? sorted.length : menu.countBelow(sorted, maxPrice);
+
+      int[] positions = Arrays.copyOf(sorted, count);
+      if (sort == PizzaStore.SORT_NONE)
+         Arrays.sort(positions);
+
+      List<List<String>> rows = new ArrayList<List<String>>(count);
+      for (int i = 0; i < count; ++i)
+         rows.add(menu.row(positions[i]));
+      if (sort == PizzaStore.SORT_PRICE_DESC)
+         Collections.reverse(rows);
+      return rows;
+   }//end items
+
+   /**
+    * @return the distinct item types in load order
+    */
+   public List<String> types() throws SQLException {
+      return new ArrayList<String>(snapshot().byType.keySet());
+   }//end types
+
+   /**
+    * @return true when the item is on the menu
+    */
+   public boolean contains(String itemName) throws SQLException {
+      return snapshot().byName.containsKey(itemName);
+   }//end contains
+
+   /**
+    * @return the price of the item, or null if it is not on the menu
+    */
+   public BigDecimal price(String itemName) throws SQLException {
+      Snapshot menu = snapshot();
+      Integer i = menu.byName.get(itemName);
+      return i == null ? null : menu.prices[i];
+   }//end price
+
+}//end MenuCache
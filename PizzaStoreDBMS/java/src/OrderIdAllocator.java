@@ -0,0 +1,46 @@
+import java.sql.SQLException;
+
+/**
+ * This class hands out FoodOrder IDs from blocks reserved on the
+ * FoodOrder_orderID_seq sequence.  The sequence increments by BLOCK_SIZE,
+ * so each nextval call reserves the IDs [value, value + BLOCK_SIZE) for this
+ * process alone; concurrent processes and threads never see the same ID
+ * and only one order in BLOCK_SIZE pays a round trip for its ID.
+ *
+ */
+public class OrderIdAllocator {
+
+   // must equal the INCREMENT BY of the sequence in create_tables.sql.
+   static final int BLOCK_SIZE = 50;
+
+   static final String SEQUENCE = "FoodOrder_orderID_seq";
+
+   private final PizzaStore _esql;
+
+   // next ID to hand out and the end of the reserved block, exclusive.
+   private long _next = 0;
+   private long _limit = 0;
+
+   public OrderIdAllocator(PizzaStore esql) {
+      this._esql = esql;
+   }//end OrderIdAllocator
+
+   /**
+    * @return a new orderID, unique across every process sharing the sequence
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public synchronized int next() throws SQLException {
+      if (this._next >= this._limit) {
+         // nextval writes, so never on the replica
+         ResultTable result = this._esql.onPrimary (() -> this._esql.executeQueryAndReturnTable ("SELECT nextval(?::regclass)", SEQUENCE));
+         long hi = result.getLong(0, 0);
+         this._next = hi;
+         this._limit = hi + BLOCK_SIZE;
+      }//end if
+      long id = this._next++;
+      if (id > Integer.MAX_VALUE)
+         throw new SQLException("orderID space exhausted: " + id);
+      return (int) id;
+   }//end next
+
+}//end OrderIdAllocator
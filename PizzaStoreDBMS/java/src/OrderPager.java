@@ -0,0 +1,110 @@
+import java.sql.SQLException;
+
+/**
+ * This class pages through order history newest first using keyset
+ * pagination on (orderTimeStamp, orderID).  Each page is fetched by seeking
+ * past the first or last row of the current page rather than with OFFSET,
+ * so every page costs the same no matter how deep into the history it is.
+ *
+ */
+public class OrderPager {
+
+   static final int DEFAULT_PAGE_SIZE = 10;
+
+   private final PizzaStore _esql;
+   private final String _login;
+   private final Integer _storeID;
+   private final String _status;
+   private final int _pageSize;
+
+   private ResultTable _page = null;
+   private boolean _hasOlder = false;
+   private boolean _hasNewer = false;
+
+   /**
+    * @param esql the database
+    * @param login only this user's orders, or null for every order
+    * @param storeID only orders at this store, or null for all stores
+    * @param status only orders with this status, or null for all
+    * @param pageSize the number of orders per page
+    */
+   public OrderPager(PizzaStore esql, String login, Integer storeID, String status, int pageSize) {
+      if (pageSize <= 0)
+         throw new IllegalArgumentException("Page size must be positive");
+      this._esql = esql;
+      this._login = login;
+      this._storeID = storeID;
+      this._status = status;
+      this._pageSize = pageSize;
+   }//end OrderPager
+
+   /**
+    * @return the newest page of orders
+    */
+   public ResultTable first() throws SQLException {
+      load(null, true);
+      return this._page;
+   }//end first
+
+   /**
+    * @return the page after the current one, or the current page if it is the oldest
+    */
+   public ResultTable older() throws SQLException {
+      if (this._hasOlder)
+         load(key(this._page.rowCount() - 1), true);
+      return this._page;
+   }//end older
+
+   /**
+    * @return the page before the current one, or the current page if it is the newest
+    */
+   public ResultTable newer() throws SQLException {
+      if (this._hasNewer)
+         load(key(0), false);
+      return this._page;
+   }//end newer
+
+   public ResultTable page() { return this._page; }
+
+   public boolean hasOlder() { return this._hasOlder; }
+
+   public boolean hasNewer() { return this._hasNewer; }
+
+   // the (orderTimeStamp, orderID) position of a row of the current page; the
+   // timestamp is the column's wall-clock text, which no time zone can shift
+   private Object[] key(int row) {
+      return new Object[] { this._page.getString(row, 3), this._page.getInt(row, 0) };
+   }//end key
+
+   /**
+    * Fetches one row more than a page to learn whether another page follows
+    * in that direction.
+    */
+   private void load(Object[] from, boolean older) throws SQLException {
+      ResultTable rows = this._esql.ordersPage(
+         this._login, this._storeID, this._status, from, older, this._pageSize + 1);
+      boolean more = rows.rowCount() > this._pageSize;
+      if (more) {
+         // rows are newest first; the extra row is the one farthest from the cursor
+         rows = older ? rows.slice(0, this._pageSize) : rows.slice(1, rows.rowCount());
+      }//end if
+      if (rows.rowCount() == 0 && from != null) {
+         // the orders past the cursor are gone; keep the page, stop offering the move
+         if (older)
+            this._hasOlder = false;
+         else
+            this._hasNewer = false;
+         return;
+      }//end if
+
+      this._page = rows;
+      if (older) {
+         this._hasOlder = more;
+         this._hasNewer = from != null;
+      } else {
+         this._hasNewer = more;
+         this._hasOlder = true;
+      }//end if
+   }//end load
+
+}//end OrderPager
@@ -0,0 +1,775 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class exposes the PizzaStore operations as a local HTTP/JSON API so
+ * one process can serve many customers and drivers at once.  Each request
+ * runs on its own virtual thread when the JVM supports them, and on a
+ * cached platform thread otherwise.  Clients log in with POST /login and
+ * send the returned token as "Authorization: Bearer <token>".  A token
+ * expires after pizzastore.session.idleMillis (default 30 minutes) without
+ * a request, or at POST /logout.
+ *
+ *   POST   /users                 create a customer {login, password, phoneNum}
+ *   POST   /login                 {login, password} -> {token, login, role}
+ *   POST   /logout
+ *   GET    /profile               own profile
+ *   PUT    /profile               {password?, phoneNum?, favoriteItems?}
+ *   GET    /menu                  ?type=&maxPrice=&sort=price_asc|price_desc|popular
+ *   POST   /menu                  manager: {itemName, ingredients, typeOfItem, price, description}
+ *   PUT    /menu/{itemName}       manager: {ingredients?, price?, description?}
+ *   DELETE /menu/{itemName}       manager
+ *   GET    /stores                ?city=&state=&open=true
+ *   POST   /orders                {storeID, items: [{itemName, quantity}]}
+ *   GET    /orders                ?login=&limit=&after=  newest first, 50 per page by default and at most 500;
+ *                                 after=<orderTimestamp>,<orderID> of the last order of the previous page
+ *                                 (customers only see their own)
+ *   GET    /orders/{orderID}
+ *   PUT    /orders/{orderID}/status  driver/manager: {status}
+ *   PUT    /orders/status         driver/manager: {status, orderIDs? | storeID?, before?} -> {changed}
+ *   PUT    /users/{login}         manager: {login?, password?, role?, favoriteItems?, phoneNum?}
+ *   GET    /sales                 manager: ?from=&to=&storeID=&by=day|hour  (dates yyyy-mm-dd, inclusive)
+ *   GET    /sales/stores          manager: ?from=&to=&limit=  top stores by revenue
+ *   GET    /sales/items           manager: ?from=&to=&storeID=&limit=  top selling items
+ *   GET    /popular               manager: ?storeID=&limit=  most ordered items and stores right now
+ *
+ */
+public class PizzaServer {
+
+   /**
+    * Thrown by a route to answer with an HTTP error status.
+    */
+   static class HttpError extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+      final int status;
+
+      HttpError(int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }//end HttpError
+
+   // orders returned by GET /orders without a limit, and the most allowed.
+   static final int DEFAULT_ORDERS_PAGE = 50;
+   static final int MAX_ORDERS_PAGE = 500;
+
+   private final PizzaStore _esql;
+   private final HttpServer _server;
+   private final ExecutorService _executor;
+
+   // how long a token stays valid without requests.
+   static final long SESSION_IDLE_MILLIS = Long.getLong("pizzastore.session.idleMillis", 1800000L);
+
+   /**
+    * A logged in client: its session and when it last made a request.
+    */
+   private static final class Client {
+      final Session session;
+      volatile long lastUsed = System.currentTimeMillis();
+
+      Client(Session session) {
+         this.session = session;
+      }//end Client
+
+      boolean expired(long now) {
+         return now - this.lastUsed > SESSION_IDLE_MILLIS;
+      }//end expired
+   }//end Client
+
+   // logged in clients, bearer token to client.
+   private final ConcurrentHashMap<String, Client> _sessions = new ConcurrentHashMap<String, Client>();
+   private final SecureRandom _random = new SecureRandom();
+
+   // when expired tokens were last dropped, see expire().
+   private final AtomicLong _expired = new AtomicLong(System.currentTimeMillis());
+
+   /**
+    * Creates a server bound to the loopback interface
+    *
+    * @param esql the database access object shared by all requests
+    * @param port the TCP port to listen on
+    * @throws java.io.IOException when the port cannot be bound
+    */
+   public PizzaServer(PizzaStore esql, int port) throws IOException {
+      this._esql = esql;
+      this._server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+      this._executor = newRequestExecutor();
+      this._server.setExecutor(this._executor);
+      this._server.createContext("/", new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException { dispatch(exchange); }
+      });
+   }//end PizzaServer
+
+   /**
+    * @return a virtual-thread-per-task executor on JDK 21+, otherwise a
+    *         cached thread pool
+    */
+   static ExecutorService newRequestExecutor() {
+      try{
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      }catch (ReflectiveOperationException e){
+         return Executors.newCachedThreadPool();
+      }//end try
+   }//end newRequestExecutor
+
+   public void start() {
+      this._server.start();
+   }//end start
+
+   public void stop() {
+      this._server.stop(1);
+      this._executor.shutdown();
+   }//end stop
+
+   public int port() {
+      return this._server.getAddress().getPort();
+   }//end port
+
+   private void dispatch(HttpExchange exchange) throws IOException {
+      int status = 200;
+      Object response;
+      this._esql.stats().beginAction();
+      try{
+         response = route(exchange);
+      }catch (HttpError e){
+         status = e.status;
+         response = error(e.getMessage());
+      }catch (IllegalArgumentException e){
+         status = 400;
+         response = error(e.getMessage());
+      }catch (SQLException e){
+         // unique_violation, e.g. a login or item name that already exists
+         status = "23505".equals(e.getSQLState()) ? 409 : 500;
+         response = error(e.getMessage());
+      }catch (Exception e){
+         status = 500;
+         response = error(String.valueOf(e.getMessage()));
+      }//end try
+      this._esql.stats().endAction(actionName(exchange), status >= 500);
+
+      byte[] body = Json.write(response).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, body.length);
+      OutputStream out = exchange.getResponseBody();
+      try{
+         out.write(body);
+      }finally{
+         out.close();
+      }//end try
+   }//end dispatch
+
+   /**
+    * @return the route of the request for the action statistics, with path
+    *         parameters replaced by {}, e.g. "PUT /orders/{}/status"
+    */
+   static String actionName(HttpExchange exchange) {
+      String[] path = splitPath(exchange.getRequestURI().getRawPath());
+      StringBuilder name = new StringBuilder(exchange.getRequestMethod()).append(' ');
+      for (int i = 0; i < path.length; ++i)
+         name.append('/').append(i == 0 || path[i].equals("status") || path[0].equals("sales") ? path[i] : "{}");
+      return path.length == 0 ? name.append('/').toString() : name.toString();
+   }//end actionName
+
+   private Object route(HttpExchange exchange) throws Exception {
+      String method = exchange.getRequestMethod();
+      String[] path = splitPath(exchange.getRequestURI().getRawPath());
+      Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+      String resource = path.length > 0 ? path[0] : "";
+
+      if (resource.equals("users") && path.length == 1 && method.equals("POST"))
+         return createUser(body(exchange));
+      if (resource.equals("login") && method.equals("POST"))
+         return login(body(exchange));
+
+      // everything else needs a logged in user
+      Session session = authenticate(exchange);
+      String login = session.login();
+      String role = session.role();
+
+      if (resource.equals("logout") && method.equals("POST")) {
+         this._sessions.remove(token(exchange));
+         return ok();
+      }
+      if (resource.equals("profile") && method.equals("GET"))
+         return profile(session);
+      if (resource.equals("profile") && method.equals("PUT"))
+         return updateProfile(session, body(exchange));
+      // reads that may be served by the read replica
+      if (method.equals("GET") && (resource.equals("menu") || resource.equals("stores") || resource.equals("orders")
+                                   || resource.equals("sales"))) {
+         this._esql.beginRead(login);
+         try{
+            return read(resource, path, query, login, role);
+         }finally{
+            this._esql.endRead();
+         }//end try
+      }//end if
+      if (resource.equals("menu") && path.length == 1 && method.equals("POST"))
+         return addItem(role, body(exchange));
+      if (resource.equals("menu") && path.length == 2 && method.equals("PUT"))
+         return updateItem(role, path[1], body(exchange));
+      if (resource.equals("menu") && path.length == 2 && method.equals("DELETE"))
+         return deleteItem(role, path[1]);
+      if (resource.equals("orders") && path.length == 1 && method.equals("POST"))
+         return placeOrder(login, body(exchange));
+      if (resource.equals("orders") && path.length == 2 && path[1].equals("status") && method.equals("PUT"))
+         return updateOrderStatuses(login, role, body(exchange));
+      if (resource.equals("orders") && path.length == 3 && path[2].equals("status") && method.equals("PUT"))
+         return updateOrderStatus(login, role, parseInt(path[1], "orderID"), body(exchange));
+      if (resource.equals("popular") && method.equals("GET"))
+         return popular(role, query);
+      if (resource.equals("users") && path.length == 2 && method.equals("PUT"))
+         return updateUser(role, path[1], body(exchange));
+
+      throw new HttpError(404, "No route for " + method + " " + exchange.getRequestURI().getPath());
+   }//end route
+
+   private Object read(String resource, String[] path, Map<String, String> query, String login, String role) throws SQLException {
+      if (resource.equals("menu") && path.length == 1)
+         return menu(query);
+      if (resource.equals("stores"))
+         return stores(query);
+      if (resource.equals("orders") && path.length == 1)
+         return orders(login, role, query);
+      if (resource.equals("orders") && path.length == 2)
+         return orderInfo(login, role, parseInt(path[1], "orderID"));
+      if (resource.equals("sales"))
+         return sales(role, path, query);
+      throw new HttpError(404, "No route for GET /" + String.join("/", path));
+   }//end read
+
+   /*
+    * Route implementations
+    **/
+
+   private Object createUser(Map<String, Object> body) throws SQLException {
+      String login = requireString(body, "login");
+      String password = requireString(body, "password");
+      String phoneNum = requireString(body, "phoneNum");
+      if (this._esql.loginExists(login))
+         throw new HttpError(409, "That username has already been taken");
+      this._esql.createUser(login, password, phoneNum);
+      return ok();
+   }//end createUser
+
+   private Object login(Map<String, Object> body) throws SQLException {
+      String login = requireString(body, "login");
+      String password = requireString(body, "password");
+      Session session = this._esql.authenticate(login, password);
+      if (session == null)
+         throw new HttpError(401, "Invalid username or password");
+
+      byte[] bytes = new byte[24];
+      this._random.nextBytes(bytes);
+      StringBuilder token = new StringBuilder();
+      for (byte b : bytes)
+         token.append(String.format("%02x", b & 0xff));
+      expire();
+      this._sessions.put(token.toString(), new Client(session));
+
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("token", token.toString());
+      result.put("login", login);
+      result.put("role", session.role());
+      return result;
+   }//end login
+
+   private Object profile(Session session) {
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("login", session.login);
+      result.put("role", session.role);
+      result.put("favoriteItems", session.favoriteItems);
+      result.put("phoneNum", session.phoneNum);
+      return result;
+   }//end profile
+
+   private Object updateProfile(Session session, Map<String, Object> body) throws SQLException {
+      for (String field : body.keySet()) {
+         if (!field.equals("password") && !field.equals("phoneNum") && !field.equals("favoriteItems"))
+            throw new IllegalArgumentException("Cannot change " + field + " of your own profile");
+      }//end for
+      String favorite = optionalString(body, "favoriteItems");
+      if (favorite != null && !this._esql.itemExists(favorite))
+         throw new IllegalArgumentException("No item named " + favorite);
+      for (Map.Entry<String, Object> entry : body.entrySet()) {
+         String value = String.valueOf(entry.getValue());
+         this._esql.updateUserField(session.login, entry.getKey(), value);
+         applyToSessions(session.login, entry.getKey(), value);
+      }//end for
+      return ok();
+   }//end updateProfile
+
+   private Object menu(Map<String, String> query) throws SQLException {
+      int sort = PizzaStore.SORT_NONE;
+      String sortName = query.get("sort");
+      if ("price_desc".equals(sortName))
+         sort = PizzaStore.SORT_PRICE_DESC;
+      else if ("price_asc".equals(sortName))
+         sort = PizzaStore.SORT_PRICE_ASC;
+      else if ("popular".equals(sortName))
+         sort = PizzaStore.SORT_POPULAR;
+      else if (sortName != null)
+         throw new IllegalArgumentException("Unknown sort " + sortName);
+      BigDecimal maxPrice = query.containsKey("maxPrice") ? parseDecimal(query.get("maxPrice"), "maxPrice") : null;
+      return rows(this._esql.menuItems(query.get("type"), maxPrice, sort), "itemName", "typeOfItem", "price");
+   }//end menu
+
+   private Object addItem(String role, Map<String, Object> body) throws SQLException {
+      requireRole(role, "manager");
+      String itemName = requireString(body, "itemName");
+      if (this._esql.itemExists(itemName))
+         throw new HttpError(409, "An item with the name " + itemName + " already exists");
+      String description = optionalString(body, "description");
+      this._esql.addItem(itemName, requireString(body, "ingredients"), requireString(body, "typeOfItem"),
+                         requireDecimal(body, "price"), description == null ? "" : description);
+      return ok();
+   }//end addItem
+
+   private Object updateItem(String role, String itemName, Map<String, Object> body) throws SQLException {
+      requireRole(role, "manager");
+      int changed = 0;
+      for (String field : body.keySet()) {
+         Object value = field.equalsIgnoreCase("price") ? requireDecimal(body, field) : requireString(body, field);
+         changed += this._esql.updateItemField(itemName, field, value);
+      }//end for
+      if (changed == 0 && !body.isEmpty())
+         throw new HttpError(404, "No item named " + itemName);
+      return ok();
+   }//end updateItem
+
+   private Object deleteItem(String role, String itemName) throws SQLException {
+      requireRole(role, "manager");
+      if (this._esql.deleteItem(itemName) == 0)
+         throw new HttpError(404, "No item named " + itemName);
+      return ok();
+   }//end deleteItem
+
+   private Object stores(Map<String, String> query) throws SQLException {
+      return rows(this._esql.stores(query.get("city"), query.get("state"), "true".equals(query.get("open"))),
+                  "storeID", "address", "city", "state", "isOpen", "reviewScore");
+   }//end stores
+
+   private Object placeOrder(String login, Map<String, Object> body) throws SQLException {
+      int storeID = requireInt(body, "storeID");
+      Object items = body.get("items");
+      if (!(items instanceof List) || ((List<?>) items).isEmpty())
+         throw new IllegalArgumentException("items must be a non-empty array");
+
+      // repeated items are merged into one order line
+      Map<String, Integer> cart = new LinkedHashMap<String, Integer>();
+      for (Object item : (List<?>) items) {
+         if (!(item instanceof Map))
+            throw new IllegalArgumentException("Each item must be an object");
+         @SuppressWarnings("unchecked")
+         Map<String, Object> line = (Map<String, Object>) item;
+         String itemName = requireString(line, "itemName");
+         int quantity = requireInt(line, "quantity");
+         if (quantity <= 0)
+            throw new IllegalArgumentException("quantity must be positive");
+         Integer inCart = cart.get(itemName);
+         cart.put(itemName, (inCart == null ? 0 : inCart) + quantity);
+      }//end for
+
+      int orderID = this._esql.submitOrder(login, storeID, cart);
+      BigDecimal totalPrice = this._esql.cartTotal(cart);
+
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("orderID", orderID);
+      result.put("totalPrice", totalPrice);
+      return result;
+   }//end placeOrder
+
+   private Object orders(String login, String role, Map<String, String> query) throws SQLException {
+      String owner = login;
+      if (!role.equals("customer"))
+         owner = query.get("login");
+      else if (query.containsKey("login") && !query.get("login").equals(login))
+         throw new HttpError(403, "Customers can only see their own orders");
+      int limit = query.containsKey("limit") ? parseInt(query.get("limit"), "limit") : DEFAULT_ORDERS_PAGE;
+      if (limit <= 0 || limit > MAX_ORDERS_PAGE)
+         throw new IllegalArgumentException("limit must be between 1 and " + MAX_ORDERS_PAGE);
+      Object[] after = null;
+      if (query.containsKey("after")) {
+         // the cursor is the orderTimestamp and orderID of the last order seen
+         String cursor = query.get("after");
+         int comma = cursor.lastIndexOf(',');
+         String timestamp = comma < 0 ? "" : cursor.substring(0, comma).trim();
+         try{
+            LocalDateTime.parse(timestamp, ResultTable.TIMESTAMP_TEXT);
+         }catch (DateTimeParseException e){
+            throw new IllegalArgumentException("after must be <orderTimestamp>,<orderID>");
+         }//end try
+         after = new Object[] { timestamp, parseInt(cursor.substring(comma + 1), "after") };
+      }//end if
+      return rows(this._esql.ordersPage(owner, null, null, after, true, limit),
+                  "orderID", "storeID", "totalPrice", "orderTimestamp", "orderStatus");
+   }//end orders
+
+   private Object orderInfo(String login, String role, int orderID) throws SQLException {
+      List<List<String>> result = this._esql.orderInfo(orderID, role.equals("customer") ? login : null);
+      if (result.isEmpty())
+         throw new HttpError(404, "Either this order was not found, or you do not have access to it");
+      Map<String, Object> order = new LinkedHashMap<String, Object>();
+      order.put("orderID", orderID);
+      order.put("orderTimestamp", result.get(0).get(0));
+      order.put("totalPrice", result.get(0).get(1));
+      order.put("orderStatus", result.get(0).get(2).trim());
+      List<Object> items = new ArrayList<Object>();
+      for (List<String> row : result) {
+         Map<String, Object> item = new LinkedHashMap<String, Object>();
+         item.put("itemName", row.get(3));
+         item.put("quantity", Integer.valueOf(row.get(4)));
+         items.add(item);
+      }//end for
+      order.put("items", items);
+      return order;
+   }//end orderInfo
+
+   private Object updateOrderStatus(String login, String role, int orderID, Map<String, Object> body) throws SQLException {
+      if (role.equals("customer"))
+         throw new HttpError(403, "Sorry, you do not have access to this feature");
+      String status = requireString(body, "status");
+      if (!status.equals("complete") && !status.equals("incomplete"))
+         throw new IllegalArgumentException("status must be complete or incomplete");
+      if (this._esql.setOrderStatus(orderID, status) == 0)
+         throw new HttpError(404, "Order " + orderID + " was not found");
+      this._esql.wrote(login);
+      return ok();
+   }//end updateOrderStatus
+
+   private Object updateOrderStatuses(String login, String role, Map<String, Object> body) throws SQLException {
+      if (role.equals("customer"))
+         throw new HttpError(403, "Sorry, you do not have access to this feature");
+      String status = requireString(body, "status");
+      if (!status.equals("complete") && !status.equals("incomplete"))
+         throw new IllegalArgumentException("status must be complete or incomplete");
+
+      int changed;
+      Object ids = body.get("orderIDs");
+      if (ids != null) {
+         if (!(ids instanceof List))
+            throw new IllegalArgumentException("orderIDs must be an array");
+         List<Integer> orderIDs = new ArrayList<Integer>();
+         for (Object id : (List<?>) ids)
+            orderIDs.add(toInt(id, "orderIDs"));
+         changed = this._esql.setOrderStatuses(orderIDs, status);
+      } else {
+         String store = optionalString(body, "storeID");
+         String before = optionalString(body, "before");
+         // refuse to touch every order when no filter was given
+         if (store == null && before == null)
+            throw new IllegalArgumentException("One of orderIDs, storeID or before is required");
+         Timestamp cutoff = null;
+         if (before != null) {
+            try{
+               cutoff = Timestamp.valueOf(before.indexOf(' ') < 0 ? before + " 00:00:00" : before);
+            }catch (IllegalArgumentException e){
+               throw new IllegalArgumentException("before must be yyyy-mm-dd [hh:mm:ss]");
+            }//end try
+         }//end if
+         changed = this._esql.setOrderStatusWhere(status, store == null ? null : parseInt(store, "storeID"), cutoff);
+      }//end if
+
+      this._esql.wrote(login);
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("changed", changed);
+      return result;
+   }//end updateOrderStatuses
+
+   private Object sales(String role, String[] path, Map<String, String> query) throws SQLException {
+      requireRole(role, "manager");
+      LocalDate first = parseDate(query.get("from"), "from");
+      LocalDate last = query.get("to") == null ? first : parseDate(query.get("to"), "to");
+      Timestamp from = Timestamp.valueOf(first.atStartOfDay());
+      Timestamp to = Timestamp.valueOf(last.plusDays(1).atStartOfDay());
+      Integer storeID = query.get("storeID") == null ? null : parseInt(query.get("storeID"), "storeID");
+      int limit = query.get("limit") == null ? 10 : parseInt(query.get("limit"), "limit");
+
+      if (path.length == 1) {
+         boolean hourly = "hour".equals(query.get("by"));
+         return rows(this._esql.sales().sales(from, to, storeID, hourly), "storeID", hourly ? "hour" : "day",
+                     "orders", "revenue", "completedOrders", "completedRevenue");
+      }//end if
+      if (path.length == 2 && path[1].equals("stores"))
+         return rows(this._esql.sales().topStores(from, to, limit),
+                     "storeID", "city", "state", "orders", "revenue", "completedRevenue");
+      if (path.length == 2 && path[1].equals("items"))
+         return rows(this._esql.sales().topItems(from, to, storeID, limit), "itemName", "quantity");
+      throw new HttpError(404, "No route for GET /" + String.join("/", path));
+   }//end sales
+
+   private Object popular(String role, Map<String, String> query) {
+      requireRole(role, "manager");
+      int limit = query.get("limit") == null ? 10 : parseInt(query.get("limit"), "limit");
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      if (query.get("storeID") != null) {
+         result.put("items", counts(this._esql.popular().topItems(parseInt(query.get("storeID"), "storeID"), limit),
+                                    "itemName"));
+      } else {
+         result.put("items", counts(this._esql.popular().topItems(null, limit), "itemName"));
+         result.put("stores", counts(this._esql.popular().topStores(limit), "storeID"));
+      }//end if
+      return result;
+   }//end popular
+
+   private static List<Object> counts(List<PopularityTracker.Count> counts, String name) {
+      List<Object> result = new ArrayList<Object>(counts.size());
+      for (PopularityTracker.Count count : counts) {
+         Map<String, Object> object = new LinkedHashMap<String, Object>();
+         object.put(name, count.key);
+         object.put("count", count.count);
+         object.put("error", count.error);
+         result.add(object);
+      }//end for
+      return result;
+   }//end counts
+
+   private Object updateUser(String role, String login, Map<String, Object> body) throws SQLException {
+      requireRole(role, "manager");
+      if (this._esql.userRole(login) == null)
+         throw new HttpError(404, "No user named " + login);
+      String newRole = optionalString(body, "role");
+      if (newRole != null && !newRole.equals("customer") && !newRole.equals("driver") && !newRole.equals("manager"))
+         throw new IllegalArgumentException("role must be customer, driver or manager");
+      String favorite = optionalString(body, "favoriteItems");
+      if (favorite != null && !this._esql.itemExists(favorite))
+         throw new IllegalArgumentException("No item named " + favorite);
+      String newLogin = optionalString(body, "login");
+      if (newLogin != null && !newLogin.equals(login) && this._esql.loginExists(newLogin))
+         throw new HttpError(409, "The username " + newLogin + " is already taken");
+
+      // the login itself changes last so the other fields still find the row
+      for (Map.Entry<String, Object> entry : body.entrySet()) {
+         if (entry.getKey().equals("login"))
+            continue;
+         String value = String.valueOf(entry.getValue());
+         this._esql.updateUserField(login, entry.getKey(), value);
+         applyToSessions(login, entry.getKey(), value);
+      }//end for
+      if (newLogin != null) {
+         this._esql.updateUserField(login, "login", newLogin);
+         applyToSessions(login, "login", newLogin);
+      }//end if
+      return ok();
+   }//end updateUser
+
+   /**
+    * Mirrors a change of a Users row into every open session of that user,
+    * so a changed role takes effect on their next request.
+    */
+   private void applyToSessions(String login, String column, String value) {
+      for (Client client : this._sessions.values()) {
+         if (client.session.login.equals(login))
+            client.session.apply(column, value);
+      }//end for
+   }//end applyToSessions
+
+   /**
+    * Drops the tokens of clients idle for too long, at most once per idle
+    * period, so tokens that are never used again do not pile up.
+    */
+   private void expire() {
+      long now = System.currentTimeMillis();
+      long last = this._expired.get();
+      if (now - last < SESSION_IDLE_MILLIS || !this._expired.compareAndSet(last, now))
+         return;
+      this._sessions.values().removeIf(client -> client.expired(now));
+   }//end expire
+
+   /*
+    * Request and response helpers
+    **/
+
+   private String token(HttpExchange exchange) {
+      String header = exchange.getRequestHeaders().getFirst("Authorization");
+      if (header == null || !header.startsWith("Bearer "))
+         return null;
+      return header.substring("Bearer ".length()).trim();
+   }//end token
+
+   private Session authenticate(HttpExchange exchange) throws SQLException {
+      String token = token(exchange);
+      Client client = token == null ? null : this._sessions.get(token);
+      long now = System.currentTimeMillis();
+      if (client != null && client.expired(now)) {
+         this._sessions.remove(token, client);
+         client = null;
+      }//end if
+      if (client == null)
+         throw new HttpError(401, "Log in first");
+      client.lastUsed = now;
+      Session session = client.session;
+      // reread after another process changed users, e.g. revoked a role
+      if (!this._esql.revalidate(session)) {
+         this._sessions.remove(token);
+         throw new HttpError(401, "Log in first");
+      }//end if
+      return session;
+   }//end authenticate
+
+   private static void requireRole(String role, String required) {
+      if (!role.equals(required))
+         throw new HttpError(403, "Sorry, you do not have access to this feature");
+   }//end requireRole
+
+   @SuppressWarnings("unchecked")
+   private static Map<String, Object> body(HttpExchange exchange) throws IOException {
+      InputStream in = exchange.getRequestBody();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0)
+         bytes.write(buffer, 0, n);
+      String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8).trim();
+      if (text.isEmpty())
+         return new HashMap<String, Object>();
+      Object value = Json.parse(text);
+      if (!(value instanceof Map))
+         throw new IllegalArgumentException("Request body must be a JSON object");
+      return (Map<String, Object>) value;
+   }//end body
+
+   private static String[] splitPath(String rawPath) {
+      List<String> parts = new ArrayList<String>();
+      for (String part : rawPath.split("/")) {
+         if (!part.isEmpty())
+            parts.add(URLDecoder.decode(part, StandardCharsets.UTF_8));
+      }//end for
+      return parts.toArray(new String[0]);
+   }//end splitPath
+
+   private static Map<String, String> parseQuery(String rawQuery) {
+      Map<String, String> query = new HashMap<String, String>();
+      if (rawQuery == null)
+         return query;
+      for (String pair : rawQuery.split("&")) {
+         int eq = pair.indexOf('=');
+         if (eq <= 0)
+            continue;
+         query.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                   URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+      }//end for
+      return query;
+   }//end parseQuery
+
+   private static String requireString(Map<String, Object> body, String field) {
+      String value = optionalString(body, field);
+      if (value == null)
+         throw new IllegalArgumentException("Missing field " + field);
+      return value;
+   }//end requireString
+
+   private static String optionalString(Map<String, Object> body, String field) {
+      Object value = body.get(field);
+      return value == null ? null : value.toString();
+   }//end optionalString
+
+   private static BigDecimal requireDecimal(Map<String, Object> body, String field) {
+      return parseDecimal(requireString(body, field), field);
+   }//end requireDecimal
+
+   private static int requireInt(Map<String, Object> body, String field) {
+      Object value = body.get(field);
+      if (value == null)
+         throw new IllegalArgumentException("Missing field " + field);
+      return toInt(value, field);
+   }//end requireInt
+
+   /**
+    * @return a JSON number or numeric string as an int; JSON numbers such
+    *         as 1e2 or 5.0 are accepted when their value is an integer
+    */
+   private static int toInt(Object value, String field) {
+      if (!(value instanceof BigDecimal))
+         return parseInt(value.toString(), field);
+      try{
+         return ((BigDecimal) value).stripTrailingZeros().intValueExact();
+      }catch (ArithmeticException e){
+         throw new IllegalArgumentException(field + " must be an integer");
+      }//end try
+   }//end toInt
+
+   private static BigDecimal parseDecimal(String value, String field) {
+      try{
+         return new BigDecimal(value.trim());
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException(field + " must be a number");
+      }//end try
+   }//end parseDecimal
+
+   private static int parseInt(String value, String field) {
+      try{
+         return Integer.parseInt(value.trim());
+      }catch (NumberFormatException e){
+         throw new IllegalArgumentException(field + " must be an integer");
+      }//end try
+   }//end parseInt
+
+   private static LocalDate parseDate(String value, String field) {
+      if (value == null)
+         throw new IllegalArgumentException("Missing parameter " + field);
+      try{
+         return LocalDate.parse(value.trim());
+      }catch (DateTimeParseException e){
+         throw new IllegalArgumentException(field + " must be a date yyyy-mm-dd");
+      }//end try
+   }//end parseDate
+
+   private static List<Object> rows(ResultTable table, String... columns) {
+      List<List<String>> rows = new ArrayList<List<String>>(table.rowCount());
+      for (int i = 0; i < table.rowCount(); ++i)
+         rows.add(table.row(i));
+      return rows(rows, columns);
+   }//end rows
+
+   private static List<Object> rows(List<List<String>> rows, String... columns) {
+      List<Object> result = new ArrayList<Object>(rows.size());
+      for (List<String> row : rows) {
+         Map<String, Object> object = new LinkedHashMap<String, Object>();
+         for (int i = 0; i < columns.length; ++i) {
+            String value = row.get(i);
+            object.put(columns[i], value == null ? null : value.trim());
+         }//end for
+         result.add(object);
+      }//end for
+      return result;
+   }//end rows
+
+   private static Map<String, Object> ok() {
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("ok", Boolean.TRUE);
+      return result;
+   }//end ok
+
+   private static Map<String, Object> error(String message) {
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("error", message);
+      return result;
+   }//end error
+
+}//end PizzaServer
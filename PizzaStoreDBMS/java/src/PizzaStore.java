@@ -1,16 +1,27 @@
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.lang.Math;
 
 /**
@@ -20,8 +31,66 @@ import java.lang.Math;
  */
 public class PizzaStore {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // number of prepared statements kept open per connection.
+   static final int STATEMENT_CACHE_SIZE = 64;
+
+   // bounds of the connection pool, overridable with -Dpizzastore.pool.*
+   static final int POOL_MIN_SIZE = Integer.getInteger("pizzastore.pool.min", 1);
+   static final int POOL_MAX_SIZE = Integer.getInteger("pizzastore.pool.max", 10);
+   static final long POOL_IDLE_TIMEOUT_MILLIS = Long.getLong("pizzastore.pool.idleTimeoutMillis", 300000L);
+   static final long POOL_BORROW_TIMEOUT_MILLIS = Long.getLong("pizzastore.pool.borrowTimeoutMillis", 10000L);
+
+   // read replica for read-only actions, enabled by -Dpizzastore.replica.port;
+   // the host defaults to localhost and the database to the primary's.
+   static final String REPLICA_HOST = System.getProperty("pizzastore.replica.host", "localhost");
+   static final String REPLICA_PORT = System.getProperty("pizzastore.replica.port");
+   static final String REPLICA_DBNAME = System.getProperty("pizzastore.replica.dbname");
+
+   // statements at least this slow are logged with their plans; negative disables.
+   static final long SLOW_QUERY_MILLIS = Long.getLong("pizzastore.slowQuery.millis", 1000L);
+
+   // pool of physical database connections, each with its statement cache.
+   private ConnectionPool _pool = null;
+
+   // per query shape and per action timings, also published over JMX.
+   private final QueryStats _stats = new QueryStats();
+
+   // statements slower than pizzastore.slowQuery.millis, with their plans.
+   private final SlowQueryLog _slowLog = new SlowQueryLog(this, SLOW_QUERY_MILLIS, new File(SlowQueryLog.FILE));
+
+   // pool of connections to the read replica, or null when there is none.
+   private ConnectionPool _replica = null;
+
+   // pool used by the current thread outside transactions, when not the primary.
+   private final ThreadLocal<ConnectionPool> _route = new ThreadLocal<ConnectionPool>();
+
+   // primary WAL position after each user's last write, until the replica
+   // has replayed it; that user's reads stay on the primary meanwhile.
+   private final ConcurrentHashMap<String, String> _unreplicated = new ConcurrentHashMap<String, String>();
+
+   // connection of the transaction open on the current thread, if any.
+   private final ThreadLocal<ConnectionPool.Entry> _transaction = new ThreadLocal<ConnectionPool.Entry>();
+
+   // the Items table, loaded on first use and dropped on menu changes.
+   private final MenuCache _menu = new MenuCache(this);
+
+   // the Store table with its city, state and storeID indexes.
+   private final StoreDirectory _stores = new StoreDirectory(this);
+
+   // Bloom filter and negative cache of logins, so unknown ones cost no query.
+   private final LoginDirectory _logins = new LoginDirectory(this);
+
+   // polls CacheVersion to drop caches changed by other processes.
+   private CacheVersions _versions = null;
+
+   // per store hourly and daily sales, kept up to date with every order.
+   private final SalesRollups _sales = new SalesRollups(this);
+
+   // items and stores ordered most in the last hour, by this process.
+   private final PopularityTracker _popular = new PopularityTracker();
+
+   // hands out orderIDs from blocks reserved on the FoodOrder sequence.
+   private final OrderIdAllocator _orderIds = new OrderIdAllocator(this);
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -45,9 +114,34 @@ public class PizzaStore {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool, which obtains the first physical connections
+         this._pool = new ConnectionPool(url, user, passwd, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                                         POOL_IDLE_TIMEOUT_MILLIS, POOL_BORROW_TIMEOUT_MILLIS,
+                                         STATEMENT_CACHE_SIZE);
          System.out.println("Done");
+
+         if (REPLICA_PORT != null) {
+            String replicaUrl = "jdbc:postgresql://" + REPLICA_HOST + ":" + REPLICA_PORT + "/" +
+                                (REPLICA_DBNAME != null ? REPLICA_DBNAME : dbname);
+            System.out.println ("Read replica URL: " + replicaUrl + "\n");
+            try{
+               this._replica = new ConnectionPool(replicaUrl, user, passwd, POOL_MIN_SIZE, POOL_MAX_SIZE,
+                                                  POOL_IDLE_TIMEOUT_MILLIS, POOL_BORROW_TIMEOUT_MILLIS,
+                                                  STATEMENT_CACHE_SIZE);
+            }catch (SQLException e){
+               System.err.println ("Unable to connect to the read replica, reading from the primary: " + e.getMessage ());
+            }//end try
+         }//end if
+
+         // start polling for menu, store and user changes of other processes
+         this._versions = new CacheVersions(this, this._menu, this._stores, this._logins);
+
+         // load the store directory up front so store selection is a lookup
+         try{
+            this._stores.snapshot();
+         }catch (SQLException e){
+            // loaded on first use instead.
+         }//end try
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
@@ -55,177 +149,1070 @@ public class PizzaStore {
       }//end catch
    }//end PizzaStore
 
+   /**
+    * @return the live counts of the items and stores ordered most
+    */
+   public PopularityTracker popular () {
+      return this._popular;
+   }//end popular
+
+   /**
+    * @return the sales rollups and reports
+    */
+   public SalesRollups sales () {
+      return this._sales;
+   }//end sales
+
+   /**
+    * @return the query and action statistics of this object
+    */
+   public QueryStats stats () {
+      return this._stats;
+   }//end stats
+
+   /**
+    * A bind value that logs show as *** instead of its value, e.g. a
+    * password.
+    */
+   public static final class Secret {
+      final Object value;
+
+      Secret(Object value) {
+         this.value = value;
+      }//end Secret
+
+      public String toString() {
+         return "***";
+      }//end toString
+   }//end Secret
+
+   /**
+    * @return the value wrapped so that it is redacted from logs
+    */
+   public static Secret secret (Object value) {
+      return new Secret (value);
+   }//end secret
+
+   /**
+    * Binds the positional parameters of a prepared statement.  Null values
+    * are sent as untyped nulls and secrets are unwrapped.
+    *
+    * @param stmt the statement to bind
+    * @param params the parameter values, in '?' order
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object value = params[i] instanceof Secret ? ((Secret) params[i]).value : params[i];
+         if (value == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else
+            stmt.setObject (i + 1, value);
+      }//end for
+   }//end bind
+
+   /**
+    * Work done with a bound statement while its connection is borrowed.
+    * It adds the rows and bytes it fetched or changed to the metric.
+    */
+   private interface StatementWork<T> {
+      T run (PreparedStatement stmt, QueryStats.Metric metric) throws SQLException;
+   }
+
+   /**
+    * Work run by inTransaction; every execute method it calls on this
+    * object uses the transaction's connection.
+    */
+   public interface TransactionWork<T> {
+      T run () throws SQLException;
+   }
+
+   /**
+    * Borrows a pooled connection, binds the cached statement of the SQL
+    * template and runs the work on it.  The connection goes back to the
+    * pool afterwards, or is discarded if the failure was a connection one.
+    * Inside inTransaction the transaction's connection is used instead,
+    * and between beginRead and endRead the replica's pool may be used.
+    * The time, including waiting for a connection, goes to the query's
+    * shape in the statistics, and slow statements to the slow query log.
+    *
+    * @param sql the SQL template with '?' parameter markers
+    * @param params the parameter values
+    * @param work what to do with the bound statement
+    * @return the result of the work
+    * @throws java.sql.SQLException when borrowing, preparing or the work failed
+    */
+   private <T> T execute (String sql, Object[] params, StatementWork<T> work) throws SQLException {
+      QueryStats.Metric metric = this._stats.query (sql);
+      long start = System.nanoTime ();
+      boolean failed = true;
+      ConnectionPool.Entry bound = this._transaction.get ();
+      ConnectionPool pool = bound != null || this._route.get () == null ? this._pool : this._route.get ();
+      ConnectionPool.Entry conn = null;
+      boolean broken = false;
+      try{
+         conn = bound != null ? bound : pool.borrow ();
+         PreparedStatement stmt = conn.statements.prepare (sql);
+         bind (stmt, params);
+         T result = work.run (stmt, metric);
+         failed = false;
+         return result;
+      }catch (SQLException e){
+         if (conn != null) {
+            conn.statements.evict (sql);
+            broken = isConnectionFailure (e);
+         }//end if
+         throw e;
+      }finally{
+         if (bound == null && conn != null)
+            pool.release (conn, broken);
+         long elapsed = System.nanoTime () - start;
+         this._stats.record (metric, elapsed, failed);
+         this._slowLog.offer (sql, params, elapsed, failed, pool);
+      }//end try
+   }//end execute
+
+   /**
+    * Runs EXPLAIN (ANALYZE, BUFFERS) of a statement for the slow query log,
+    * on a connection borrowed from the pool the statement ran on, so the
+    * plan is the one of that server.  It bypasses the statistics and the
+    * slow query log, and the statement cache since it runs once.
+    *
+    * @param pool the pool the statement ran on
+    * @param sql the statement's SQL template
+    * @param params the statement's parameter values
+    * @return the lines of the plan
+    * @throws java.sql.SQLException when the plan cannot be obtained
+    */
+   List<String> explain (ConnectionPool pool, String sql, Object[] params) throws SQLException {
+      ConnectionPool.Entry conn = pool.borrow ();
+      boolean broken = false;
+      PreparedStatement stmt = null;
+      try{
+         stmt = conn.connection.prepareStatement ("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+         bind (stmt, params);
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            List<String> plan = new ArrayList<String>();
+            while (rs.next ())
+               plan.add (rs.getString (1));
+            return plan;
+         }finally{
+            closeQuietly (rs);
+         }//end try
+      }catch (SQLException e){
+         broken = isConnectionFailure (e);
+         throw e;
+      }finally{
+         try{
+            if (stmt != null)
+               stmt.close ();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+         pool.release (conn, broken);
+      }//end try
+   }//end explain
+
+   /**
+    * Runs the work as one database transaction on one pooled connection,
+    * committing if it returns and rolling back if it throws.  A call made
+    * while a transaction is already open on this thread joins it.
+    *
+    * @param work the statements to run atomically
+    * @return the result of the work
+    * @throws java.sql.SQLException when the work, the commit or the rollback failed
+    */
+   public <T> T inTransaction (TransactionWork<T> work) throws SQLException {
+      if (this._transaction.get () != null)
+         return work.run ();
+
+      ConnectionPool.Entry conn = this._pool.borrow ();
+      boolean broken = false;
+      this._transaction.set (conn);
+      try{
+         conn.connection.setAutoCommit (false);
+         T result = work.run ();
+         conn.connection.commit ();
+         return result;
+      }catch (SQLException | RuntimeException e){
+         if (e instanceof SQLException && isConnectionFailure ((SQLException) e))
+            broken = true;
+         try{
+            conn.connection.rollback ();
+         }catch (SQLException rollbackFailure){
+            broken = true;
+         }//end try
+         throw e;
+      }finally{
+         this._transaction.remove ();
+         try{
+            conn.connection.setAutoCommit (true);
+         }catch (SQLException e){
+            broken = true;
+         }//end try
+         this._pool.release (conn, broken);
+      }//end try
+   }//end inTransaction
+
+   /**
+    * Routes the statements this thread runs outside transactions to the
+    * read replica, until endRead.  A user whose last write the replica has
+    * not replayed yet keeps reading from the primary, so they always see
+    * their own orders.  Without a replica, or if it cannot be reached, the
+    * primary is used.
+    *
+    * @param login the user whose reads these are, or null
+    */
+   public void beginRead (String login) {
+      if (this._replica == null)
+         return;
+      String lsn = login == null ? null : this._unreplicated.get (login);
+      this._route.set (this._replica);
+      if (lsn == null)
+         return;
+      try{
+         // null, and so false, when the replica is not a standby
+         if (exists ("SELECT 1 WHERE pg_last_wal_replay_lsn() >= ?::pg_lsn", lsn)) {
+            this._unreplicated.remove (login, lsn);
+            return;
+         }//end if
+      }catch (SQLException e){
+         // read from the primary.
+      }//end try
+      this._route.remove ();
+   }//end beginRead
+
+   /**
+    * Sends this thread's statements to the primary again.
+    */
+   public void endRead () {
+      this._route.remove ();
+   }//end endRead
+
+   /**
+    * Notes that the user has just committed a write, so that beginRead
+    * keeps their reads on the primary until the replica has replayed it.
+    * Called after the write committed, so a failure to read the primary's
+    * WAL position is only logged: the user may then briefly read from a
+    * replica that has not replayed the write.
+    *
+    * @param login the user who wrote
+    */
+   public void wrote (String login) {
+      if (this._replica == null || login == null)
+         return;
+      try{
+         String lsn = onPrimary (() -> executeQueryAndReturnTable ("SELECT pg_current_wal_lsn()::text").getString (0, 0));
+         this._unreplicated.put (login, lsn);
+      }catch (SQLException e){
+         System.err.println ("Could not read the WAL position after a write by " + login + ": " + e.getMessage ());
+      }//end try
+   }//end wrote
+
+   /**
+    * Runs the work with this thread's statements on the primary, e.g. to
+    * fill a cache that must not hold rows the replica has not caught up on.
+    *
+    * @param work the statements to run
+    * @return the result of the work
+    * @throws java.sql.SQLException when the work failed
+    */
+   public <T> T onPrimary (TransactionWork<T> work) throws SQLException {
+      ConnectionPool route = this._route.get ();
+      if (route == null)
+         return work.run ();
+      this._route.remove ();
+      try{
+         return work.run ();
+      }finally{
+         this._route.set (route);
+      }//end try
+   }//end onPrimary
+
+   /**
+    * @return true when the error means the connection itself is unusable
+    */
+   private static boolean isConnectionFailure (SQLException e) {
+      String state = e.getSQLState ();
+      return state != null && state.startsWith ("08");
+   }//end isConnectionFailure
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL template with '?' parameter markers
+    * @param params the parameter values
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      // issues the update instruction on a pooled connection
+      return execute (sql, params, (stmt, metric) -> {
+         int rows = stmt.executeUpdate ();
+         metric.addRows (rows);
+         return rows;
+      });
+   }//end executeUpdate
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   // most rows sent in one multi-row INSERT; more are split into several.
+   static final int MAX_VALUES_ROWS = 256;
 
-      // close the instruction
-      stmt.close ();
-   }//end executeUpdate
+   /**
+    * Method to insert many rows with multi-row INSERT ... VALUES statements,
+    * one per MAX_VALUES_ROWS rows.  The bundled driver runs a JDBC batch as
+    * one statement per row, so this is what saves the round trips.
+    *
+    * @param insert the statement up to VALUES, e.g. "INSERT INTO T"
+    * @param row the values of one row with '?' parameter markers, e.g. "(?, ?)"
+    * @param suffix the statement after the rows, e.g. an ON CONFLICT clause, or ""
+    * @param rows the parameter values of each row
+    * @return the number of rows inserted or updated
+    * @throws java.sql.SQLException when a statement failed
+    */
+   public int executeValues (String insert, String row, String suffix, List<Object[]> rows) throws SQLException {
+      int affected = 0;
+      for (int from = 0; from < rows.size(); from += MAX_VALUES_ROWS) {
+         int to = Math.min (from + MAX_VALUES_ROWS, rows.size());
+         StringBuilder sql = new StringBuilder (insert).append (" VALUES ");
+         List<Object> params = new ArrayList<Object>();
+         for (int i = from; i < to; ++i) {
+            sql.append (i == from ? "" : ", ").append (row);
+            params.addAll (Arrays.asList (rows.get (i)));
+         }//end for
+         affected += executeUpdate (sql.append (suffix).toString (), params.toArray ());
+      }//end for
+      return affected;
+   }//end executeValues
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
     * standard out.
     *
-    * @param query the input query string
+    * @param query the input query template with '?' parameter markers
+    * @param params the parameter values
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
-   }//end executeQuery
+   public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+      // issues the query instruction on a pooled connection
+      return execute (query, params, (stmt, metric) -> {
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            /*
+             ** obtains the metadata object for the returned result set.  The metadata
+             ** contains row and column info.
+             */
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+            int rowCount = 0;
+
+            // streams the result set through a buffered table renderer; the
+            // connection is held meanwhile, so there is no paging here.
+            TableRenderer table = TableRenderer.console (false);
+            String[] header = new String[numCol];
+            for (int i = 1; i <= numCol; ++i)
+               header[i - 1] = rsmd.getColumnName (i);
+            table.header (header);
+            long bytes = 0;
+            String[] values = new String[numCol];
+            while (rs.next()){
+               for (int i=1; i<=numCol; ++i) {
+                  values[i - 1] = rs.getString (i);
+                  bytes += values[i - 1] == null ? 0 : values[i - 1].length ();
+               }//end for
+               table.row (values);
+               ++rowCount;
+            }//end while
+            table.finish ();
+            metric.addRows (rowCount);
+            metric.addBytes (bytes);
+            return rowCount;
+         }catch (IOException e){
+            throw new SQLException ("Cannot print the result: " + e.getMessage ());
+         }finally{
+            closeQuietly (rs);
+         }//end try
+      });
+   }//end executeQueryAndPrintResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the results as
     * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
+    * @param query the input query template with '?' parameter markers
+    * @param params the parameter values
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
-      return result;
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      // issues the query instruction on a pooled connection
+      return execute (query, params, (stmt, metric) -> {
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            /*
+             ** obtains the metadata object for the returned result set.  The metadata
+             ** contains row and column info.
+             */
+            ResultSetMetaData rsmd = rs.getMetaData ();
+            int numCol = rsmd.getColumnCount ();
+
+            // iterates through the result set and saves the data returned by the query.
+            List<List<String>> result  = new ArrayList<List<String>>();
+            long bytes = 0;
+            while (rs.next()){
+               List<String> record = new ArrayList<String>(numCol);
+               for (int i=1; i<=numCol; ++i) {
+                  String value = rs.getString (i);
+                  bytes += value == null ? 0 : value.length ();
+                  record.add(value);
+               }//end for
+               result.add(record);
+            }//end while
+            metric.addRows (result.size ());
+            metric.addBytes (bytes);
+            return result;
+         }finally{
+            closeQuietly (rs);
+         }//end try
+      });
    }//end executeQueryAndReturnResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
+    * method issues the query to the DBMS and returns the results decoded
+    * once into typed columns, without converting numbers and timestamps to
+    * strings.
     *
-    * @param query the input query string
-    * @return the number of rows returned
+    * @param query the input query template with '?' parameter markers
+    * @param params the parameter values
+    * @return the query result as typed columns
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public ResultTable executeQueryAndReturnTable (String query, Object... params) throws SQLException {
+      // issues the query instruction on a pooled connection
+      return execute (query, params, (stmt, metric) -> {
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            ResultTable table = ResultTable.read (rs);
+            metric.addRows (table.rowCount ());
+            metric.addBytes (table.bytes ());
+            return table;
+         }finally{
+            closeQuietly (rs);
+         }//end try
+      });
+   }//end executeQueryAndReturnTable
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the number of results,
+    * counted on the DBMS side.  Use exists() when only the presence of a row
+    * matters.
+    *
+    * @param query the input query template with '?' parameter markers
+    * @param params the parameter values
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      // counts on the DBMS side instead of walking the result set here
+      return (int) countExact (query, params);
+   }//end executeQuery
 
-       int rowCount = 0;
+   /**
+    * Method to test whether an input query SQL instruction (i.e. SELECT)
+    * returns any row.  The query is wrapped in SELECT EXISTS(...), so the
+    * DBMS stops at the first match and a single boolean is transferred.
+    *
+    * @param query the input query template with '?' parameter markers
+    * @param params the parameter values
+    * @return true when the query returns at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean exists (String query, Object... params) throws SQLException {
+      return execute ("SELECT EXISTS(" + query + ")", params, (stmt, metric) -> {
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            metric.addRows (1);
+            return rs.next () && rs.getBoolean (1);
+         }finally{
+            closeQuietly (rs);
+         }//end try
+      });
+   }//end exists
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
+   /**
+    * Method to count the rows of an input query SQL instruction (i.e.
+    * SELECT) on the DBMS side, transferring only the count.
+    *
+    * @param query the input query template with '?' parameter markers
+    * @param params the parameter values
+    * @return the exact number of rows the query returns
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long countExact (String query, Object... params) throws SQLException {
+      return execute ("SELECT count(*) FROM (" + query + ") AS counted", params, (stmt, metric) -> {
+         ResultSet rs = stmt.executeQuery ();
+         try{
+            rs.next ();
+            metric.addRows (1);
+            return rs.getLong (1);
+         }finally{
+            closeQuietly (rs);
+         }//end try
+      });
+   }//end countExact
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
     * value of sequence used for autogenerated keys
     *
+    * Note that currval is per session, so with pooled connections it is
+    * only meaningful if nextval ran on the same borrowed connection.
+    *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
-
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+      ResultTable result = executeQueryAndReturnTable ("SELECT currval(?::regclass)", sequence);
+      if (result.rowCount () == 0)
+         return -1;
+      return result.getInt (0, 0);
    }
 
-   /**
-    * Method to close the physical connection if it is open.
-    */
-   public void cleanup(){
+   private static void closeQuietly (ResultSet rs) {
       try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
+         if (rs != null)
+            rs.close ();
       }catch (SQLException e){
          // ignored.
       }//end try
+   }//end closeQuietly
+
+   /**
+    * Method to drain the connection pool, closing every idle physical
+    * connection and its cached statements.
+    */
+   public void cleanup(){
+      // the log may still run EXPLAIN on the pool
+      this._slowLog.close ();
+      if (this._versions != null){
+         this._versions.close ();
+      }//end if
+      if (this._replica != null){
+         this._replica.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
+   /*
+    * Operations shared by the console menus and the HTTP server.  They take
+    * plain values, do no terminal I/O and can be called from any thread.
+    **/
+
+   // columns a manager may change through updateUserField.
+   static final String[] USER_COLUMNS = { "login", "password", "role", "favoriteItems", "phoneNum" };
+
+   // columns a manager may change through updateItemField.
+   static final String[] ITEM_COLUMNS = { "ingredients", "price", "description" };
+
+   // menu sort orders understood by menuItems.
+   static final int SORT_NONE = 0;
+   static final int SORT_PRICE_DESC = 1;
+   static final int SORT_PRICE_ASC = 2;
+   static final int SORT_POPULAR = 3;
+
+   /**
+    * @return the column name from the whitelist, matched case-insensitively
+    * @throws IllegalArgumentException when the column is not in the whitelist
+    */
+   static String checkColumn (String column, String[] allowed) {
+      for (String name : allowed) {
+         if (name.equalsIgnoreCase (column))
+            return name;
+      }//end for
+      throw new IllegalArgumentException ("Unknown field " + column);
+   }//end checkColumn
+
+   /**
+    * @return true when a user with this login exists
+    */
+   public boolean loginExists (String login) throws SQLException {
+      if (!this._logins.mightExist (login))
+         return false;
+      long version = this._logins.version ();
+      if (exists ("SELECT 1 FROM Users U WHERE U.login = ?", login))
+         return true;
+      this._logins.unknown (login, version);
+      return false;
+   }//end loginExists
+
+   /**
+    * Registers a new customer.
+    */
+   public void createUser (final String login, final String password, final String phoneNum) throws SQLException {
+      this._logins.wrote (login, inTransaction (() -> {
+         executeUpdate ("INSERT INTO Users VALUES (?, ?, 'customer', NULL, ?)", login, secret (password), phoneNum);
+         return loginsVersion ();
+      }));
+   }//end createUser
+
+   /**
+    * Reads the Logins version in a transaction that has just added a
+    * login; the row stays locked until commit, so the version is this
+    * transaction's own.
+    *
+    * @return the version, or -1 when versions are not polled
+    */
+   private long loginsVersion () throws SQLException {
+      if (!this._versions.active ())
+         return -1;
+      return executeQueryAndReturnTable ("SELECT version FROM CacheVersion WHERE tableName = 'Logins'").getLong (0, 0);
+   }//end loginsVersion
+
+   /**
+    * Checks the credentials and loads the user's role and profile in the
+    * same query.
+    *
+    * @return the session of the user, or null if the login and password do
+    *         not match
+    */
+   public Session authenticate (String login, String password) throws SQLException {
+      if (!this._logins.mightExist (login))
+         return null;
+      long version = this._versions.users ();
+      long loginsVersion = this._logins.version ();
+      // the last column tells an unknown login from a wrong password
+      List<List<String>> result = executeQueryAndReturnResult (
+         "SELECT " + Session.COLUMNS + ", CASE WHEN password = ? THEN 1 ELSE 0 END FROM Users WHERE login = ?",
+         secret (password), login);
+      if (result.isEmpty()) {
+         this._logins.unknown (login, loginsVersion);
+         return null;
+      }//end if
+      if (!result.get(0).get(5).equals("1"))
+         return null;
+      return new Session (result.get(0), version);
+   }//end authenticate
+
+   /**
+    * Rereads the user of a session when another process may have changed
+    * a user since the session was read, e.g. revoked a manager role.
+    *
+    * @param session the session to check
+    * @return false when the user no longer exists
+    */
+   public boolean revalidate (Session session) throws SQLException {
+      long version = this._versions.users ();
+      if (session.version >= version)
+         return true;
+      List<List<String>> result = executeQueryAndReturnResult (
+         "SELECT " + Session.COLUMNS + " FROM Users WHERE login = ?", session.login);
+      if (result.size() != 1)
+         return false;
+      session.reload (result.get(0), version);
+      return true;
+   }//end revalidate
+
+   /**
+    * @return the trimmed role of the user, or null if there is no such user
+    */
+   public String userRole (String login) throws SQLException {
+      List<List<String>> result = executeQueryAndReturnResult ("SELECT role FROM Users WHERE login = ?", login);
+      if (result.isEmpty())
+         return null;
+      return result.get(0).get(0).trim();
+   }//end userRole
+
+   /**
+    * Changes one column of a user row.
+    *
+    * @param login the user to change
+    * @param column one of USER_COLUMNS
+    * @param value the new value
+    * @return the number of rows changed
+    */
+   public int updateUserField (final String login, String column, final Object value) throws SQLException {
+      column = checkColumn (column, USER_COLUMNS);
+      final String sql = "UPDATE Users SET " + column + " = ? WHERE login = ?";
+      if (!column.equals ("login"))
+         return executeUpdate (sql, column.equals ("password") ? secret (value) : value, login);
+
+      // a new login, which the login directory has to learn
+      final int[] rows = new int[1];
+      this._logins.wrote (String.valueOf (value), inTransaction (() -> {
+         rows[0] = executeUpdate (sql, value, login);
+         return loginsVersion ();
+      }));
+      return rows[0];
+   }//end updateUserField
+
+   /**
+    * Lists the menu as itemName, typeOfItem and price rows.
+    *
+    * @param type only items of this type, or null for all
+    * @param maxPrice only items cheaper than this, or null for all
+    * @param sort SORT_NONE, SORT_PRICE_DESC, SORT_PRICE_ASC or SORT_POPULAR
+    * @return the matching items
+    */
+   public List<List<String>> menuItems (String type, BigDecimal maxPrice, int sort) throws SQLException {
+      if (sort != SORT_POPULAR)
+         return this._menu.items (type, maxPrice, sort);
+
+      // most ordered in the popularity window first, ties in menu order
+      List<List<String>> items = this._menu.items (type, maxPrice, SORT_NONE);
+      final Map<String, Long> ordered = this._popular.itemCounts ();
+      Collections.sort (items, new Comparator<List<String>>() {
+         public int compare (List<String> a, List<String> b) {
+            return Long.compare (count (b), count (a));
+         }
+         private long count (List<String> item) {
+            Long count = ordered.get (item.get(0));
+            return count == null ? 0 : count;
+         }
+      });
+      return items;
+   }//end menuItems
+
+   /**
+    * @return the distinct item types on the menu
+    */
+   public List<String> itemTypes () throws SQLException {
+      return this._menu.types ();
+   }//end itemTypes
+
+   /**
+    * @return true when the item is on the menu
+    */
+   public boolean itemExists (String itemName) throws SQLException {
+      return this._menu.contains (itemName);
+   }//end itemExists
+
+   /**
+    * Adds an item to the menu.
+    */
+   public void addItem (String itemName, String ingredients, String typeOfItem, BigDecimal price,
+                        String description) throws SQLException {
+      try{
+         executeUpdate ("INSERT INTO Items VALUES (?, ?, ?, ?, ?)", itemName, ingredients, typeOfItem, price, description);
+      }finally{
+         this._menu.invalidate ();
+      }//end try
+   }//end addItem
+
+   /**
+    * @return the number of items deleted
+    */
+   public int deleteItem (String itemName) throws SQLException {
+      try{
+         return executeUpdate ("DELETE FROM Items WHERE itemName = ?", itemName);
+      }finally{
+         this._menu.invalidate ();
+      }//end try
+   }//end deleteItem
+
+   /**
+    * Changes one column of a menu item.
+    *
+    * @param itemName the item to change
+    * @param column one of ITEM_COLUMNS
+    * @param value the new value
+    * @return the number of rows changed
+    */
+   public int updateItemField (String itemName, String column, Object value) throws SQLException {
+      column = checkColumn (column, ITEM_COLUMNS);
+      try{
+         return executeUpdate ("UPDATE Items SET " + column + " = ? WHERE itemName = ?", value, itemName);
+      }finally{
+         this._menu.invalidate ();
+      }//end try
+   }//end updateItemField
+
+   /**
+    * Lists stores as storeID, address, city, state, isOpen and reviewScore rows.
+    *
+    * @param city only stores in this city, or null for all
+    * @param state only stores in this state, or null for all
+    * @param openOnly only stores that are open
+    * @return the matching stores ordered by storeID
+    */
+   public List<List<String>> stores (String city, String state, boolean openOnly) throws SQLException {
+      return this._stores.stores (city, state, openOnly);
+   }//end stores
+
+   /**
+    * Prices a cart from the menu.
+    *
+    * @param cart item names and quantities
+    * @return the exact total of the cart
+    * @throws IllegalArgumentException when an item is not on the menu
+    */
+   public BigDecimal cartTotal (Map<String, Integer> cart) throws SQLException {
+      BigDecimal total = BigDecimal.ZERO;
+      for (Map.Entry<String, Integer> line : cart.entrySet()) {
+         BigDecimal price = this._menu.price (line.getKey());
+         if (price == null)
+            throw new IllegalArgumentException ("Invalid item " + line.getKey());
+         total = total.add (price.multiply (BigDecimal.valueOf (line.getValue())));
+      }//end for
+      return total.setScale (2, RoundingMode.HALF_UP);
+   }//end cartTotal
+
+   /**
+    * Places an order in one transaction: the FoodOrder row is inserted with
+    * its final total and all ItemsInOrder rows follow in one statement, so
+    * no partial order is ever visible.
+    *
+    * @param login the customer placing the order
+    * @param storeID an open store
+    * @param cart item names and positive quantities, one entry per item
+    * @return the new orderID
+    * @throws IllegalArgumentException when the store, an item or a quantity is invalid
+    */
+   public int submitOrder (final String login, final int storeID, Map<String, Integer> cart) throws SQLException {
+      if (!this._stores.isOpen (storeID))
+         throw new IllegalArgumentException ("Store " + storeID + " does not exist or is closed");
+      if (cart.isEmpty())
+         throw new IllegalArgumentException ("The order has no items");
+      for (Map.Entry<String, Integer> line : cart.entrySet()) {
+         if (line.getValue() == null || line.getValue() <= 0)
+            throw new IllegalArgumentException ("Invalid quantity for " + line.getKey());
+      }//end for
+
+      final BigDecimal totalPrice = cartTotal (cart);
+      final int orderID = this._orderIds.next ();
+      final Timestamp timestamp = new Timestamp (System.currentTimeMillis());
+      final List<Object[]> lines = new ArrayList<Object[]>(cart.size());
+      for (Map.Entry<String, Integer> line : cart.entrySet())
+         lines.add (new Object[] { orderID, line.getKey(), line.getValue() });
+
+      inTransaction (() -> {
+         executeUpdate ("INSERT INTO FoodOrder VALUES (?, ?, ?, ?, ?, 'incomplete')",
+                        orderID, login, storeID, totalPrice, timestamp);
+         executeValues ("INSERT INTO ItemsInOrder", "(?, ?, ?)", "", lines);
+         this._sales.record (storeID, timestamp, totalPrice, cart);
+         return null;
+      });
+      this._popular.record (storeID, cart);
+      wrote (login);
+      return orderID;
+   }//end submitOrder
+
+   /**
+    * Lists orders as orderID, storeID, totalPrice, orderTimeStamp and
+    * orderStatus rows, newest first.
+    *
+    * @param login only this user's orders, or null for every order
+    * @param limit the maximum number of orders, or 0 for all
+    * @return the orders
+    */
+   public List<List<String>> orders (String login, int limit) throws SQLException {
+      String query = "SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus FROM FoodOrder";
+      List<Object> params = new ArrayList<Object>();
+      if (login != null) {
+         query += " WHERE login = ?";
+         params.add (login);
+      }//end if
+      query += " ORDER BY orderTimeStamp DESC, orderID DESC";
+      if (limit > 0) {
+         query += " LIMIT ?";
+         params.add (limit);
+      }//end if
+      return executeQueryAndReturnResult (query, params.toArray());
+   }//end orders
+
+   /**
+    * Lists one page of orders with the columns of orders(), newest first,
+    * by seeking from a (orderTimeStamp, orderID) position instead of
+    * skipping rows, so the cost does not grow with the page's depth.
+    *
+    * @param login only this user's orders, or null for every order
+    * @param storeID only orders at this store, or null for all stores
+    * @param status only orders with this status, or null for all
+    * @param from the orderTimeStamp text and orderID to start after, or null for the newest
+    * @param older true for orders older than the position, false for newer ones
+    * @param limit the maximum number of orders
+    * @return the orders, newest first
+    */
+   public ResultTable ordersPage (String login, Integer storeID, String status,
+                                  Object[] from, boolean older, int limit) throws SQLException {
+      StringBuilder query = new StringBuilder (
+         "SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus FROM FoodOrder WHERE TRUE");
+      List<Object> params = new ArrayList<Object>();
+      if (login != null) {
+         query.append (" AND login = ?");
+         params.add (login);
+      }//end if
+      if (storeID != null) {
+         query.append (" AND storeID = ?");
+         params.add (storeID);
+      }//end if
+      if (status != null) {
+         query.append (" AND orderStatus = ?");
+         params.add (status);
+      }//end if
+      if (from != null) {
+         // the timestamp is bound as text so no driver rounding can skip rows
+         query.append (older ? " AND (orderTimeStamp, orderID) < (?::timestamp, ?)"
+                             : " AND (orderTimeStamp, orderID) > (?::timestamp, ?)");
+         params.add (from[0]);
+         params.add (from[1]);
+      }//end if
+      query.append (older ? " ORDER BY orderTimeStamp DESC, orderID DESC"
+                          : " ORDER BY orderTimeStamp ASC, orderID ASC");
+      query.append (" LIMIT ?");
+      params.add (limit);
+
+      // newer pages are found oldest first and flipped by the DBMS
+      String sql = older ? query.toString ()
+                         : "SELECT * FROM (" + query + ") AS page ORDER BY orderTimeStamp DESC, orderID DESC";
+      return executeQueryAndReturnTable (sql, params.toArray());
+   }//end ordersPage
+
+   /**
+    * Lists the lines of an order as orderTimeStamp, totalPrice, orderStatus,
+    * itemName and quantity rows.
+    *
+    * @param orderID the order to show
+    * @param login only if the order belongs to this user, or null for any
+    * @return the order lines, empty if not found or not accessible
+    */
+   public List<List<String>> orderInfo (int orderID, String login) throws SQLException {
+      String getOrderInfo = "SELECT orderTimeStamp, totalPrice, orderStatus, itemName, quantity FROM FoodOrder " +
+                            "NATURAL JOIN ItemsInOrder WHERE orderID = ?";
+      if (login == null)
+         return executeQueryAndReturnResult (getOrderInfo, orderID);
+      return executeQueryAndReturnResult (getOrderInfo + " AND login = ?", orderID, login);
+   }//end orderInfo
+
+   /**
+    * @return the trimmed status of the order, or null if there is no such order
+    */
+   public String orderStatus (int orderID) throws SQLException {
+      List<List<String>> result = executeQueryAndReturnResult ("SELECT orderStatus FROM FoodOrder WHERE orderID = ?", orderID);
+      if (result.isEmpty())
+         return null;
+      return result.get(0).get(0).trim();
+   }//end orderStatus
+
+   /**
+    * @return the number of orders found and set, 0 or 1
+    */
+   public int setOrderStatus (int orderID, String status) throws SQLException {
+      return updateOrderStatus ("orderID = ?", false, status, orderID);
+   }//end setOrderStatus
+
+   /**
+    * Sets the status of the orders matching the filter and corrects the
+    * completed sales of the rollups in the same statement.
+    *
+    * @param filter the WHERE condition on FoodOrder, with '?' markers
+    * @param changedOnly skip, and do not count, orders already in the status
+    * @param status the new status
+    * @param filterParams the parameter values of the filter
+    * @return the number of orders updated
+    */
+   private int updateOrderStatus (String filter, boolean changedOnly, String status, Object... filterParams) throws SQLException {
+      Object[] params = new Object[filterParams.length + (changedOnly ? 2 : 1)];
+      System.arraycopy (filterParams, 0, params, 0, filterParams.length);
+      params[params.length - 1] = status;
+      if (changedOnly)
+         params[params.length - 2] = status;
+      return (int) executeQueryAndReturnTable (SalesRollups.setStatus (filter, changedOnly), params).getLong (0, 0);
+   }//end updateOrderStatus
+
+   // longest IN list sent in one statement; longer ID lists are split.
+   static final int MAX_IN_LIST = 1024;
+
+   /**
+    * Sets the status of many orders in one transaction.  The IDs are sent
+    * sorted, so concurrent bulk updates lock rows in the same order, in IN
+    * lists padded to a power of two by repeating the last ID, so only a few
+    * statement shapes are prepared.  Orders already in the status, or not
+    * found, are not counted.
+    *
+    * @param orderIDs the orders to change
+    * @param status the new status
+    * @return the number of orders changed
+    */
+   public int setOrderStatuses (Collection<Integer> orderIDs, final String status) throws SQLException {
+      final int[] ids = new int[orderIDs.size()];
+      int n = 0;
+      for (Integer id : new TreeSet<Integer>(orderIDs))
+         ids[n++] = id;
+      if (n == 0)
+         return 0;
+      final int count = n;
+      return inTransaction (() -> {
+         int changed = 0;
+         for (int from = 0; from < count; from += MAX_IN_LIST) {
+            int to = Math.min (from + MAX_IN_LIST, count);
+            int size = Integer.highestOneBit (to - from);
+            if (size < to - from)
+               size <<= 1;
+            StringBuilder filter = new StringBuilder ("orderID IN (");
+            Object[] params = new Object[size];
+            for (int i = 0; i < size; ++i) {
+               filter.append (i == 0 ? "?" : ", ?");
+               params[i] = ids[Math.min (from + i, to - 1)];
+            }//end for
+            filter.append (")");
+            changed += updateOrderStatus (filter.toString (), true, status, params);
+         }//end for
+         return changed;
+      });
+   }//end setOrderStatuses
+
+   /**
+    * Sets the status of every order matching the filters with one update.
+    * Orders already in the status are not counted.
+    *
+    * @param status the new status
+    * @param storeID only orders of this store, or null for all stores
+    * @param before only orders placed before this time, or null for any time
+    * @return the number of orders changed
+    */
+   public int setOrderStatusWhere (String status, Integer storeID, Timestamp before) throws SQLException {
+      StringBuilder filter = new StringBuilder ("TRUE");
+      List<Object> params = new ArrayList<Object>();
+      if (storeID != null) {
+         filter.append (" AND storeID = ?");
+         params.add (storeID);
+      }//end if
+      if (before != null) {
+         filter.append (" AND orderTimeStamp < ?");
+         params.add (before);
+      }//end if
+      return updateOrderStatus (filter.toString (), true, status, params.toArray());
+   }//end setOrderStatusWhere
+
    /**
     * The main execution method
     *
-    * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
+    * @param args the command line arguments this inclues the <dbname> <port> <user>
+    *             and optionally --server <httpPort> to also serve the HTTP API
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      if (!(args.length == 3 || (args.length == 5 && args[3].equals("--server")))) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             PizzaStore.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--server <httpPort>]");
          return;
       }//end if
 
       Greeting();
       PizzaStore esql = null;
+      PizzaServer server = null;
       try{
          // use postgres JDBC driver.
          Class.forName ("org.postgresql.Driver").newInstance ();
@@ -236,6 +1223,14 @@ public class PizzaStore {
          String user = args[2];
          esql = new PizzaStore (dbname, dbport, user, "");
 
+         // in server mode the HTTP API runs next to the console, which is
+         // just one more client of the same operations
+         if (args.length == 5) {
+            server = new PizzaServer (esql, Integer.parseInt (args[4]));
+            server.start ();
+            System.out.println ("Serving the HTTP API on http://localhost:" + server.port () + "/");
+         }//end if
+
          boolean keepon = true;
          while(keepon) {
             // These are sample SQL statements
@@ -244,19 +1239,28 @@ public class PizzaStore {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            String authorisedUser = null;
+            Session session = null;
             switch (readChoice()){
                case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+               case 2: session = LogIn(esql); break;
 
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
 
-            if (authorisedUser != null) {
+            if (session != null) {
               
               boolean usermenu = true;
               while(usermenu) {
+                //another process may have changed or removed this user
+                try {
+                   if (!esql.revalidate(session)) {
+                      System.out.println("Your account no longer exists, please log in again.");
+                      break;
+                   }
+                } catch(SQLException e) {
+                   System.err.println(e.getMessage());
+                }
                 System.out.println("MAIN MENU");
                 System.out.println("---------");
                 System.out.println("1. View Profile");
@@ -275,39 +1279,79 @@ public class PizzaStore {
                 System.out.println("10. Update Menu");
                 System.out.println("11. Update User");
 
+                //**managers only**
+                if (session.isManager()) {
+                   System.out.println("12. View Performance Stats");
+                   System.out.println("13. View Sales");
+                   System.out.println("14. Popular Now Dashboard");
+                }
+
                 System.out.println(".........................");
                 System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: viewProfile(authorisedUser, esql); break;
-                   case 2: updateProfile(authorisedUser, esql); break;
-                   case 3: viewMenu(esql); break;
-                   case 4: placeOrder(authorisedUser, esql); break;
-                   case 5: viewAllOrders(authorisedUser, esql); break;
-                   case 6: viewRecentOrders(authorisedUser, esql); break;
-                   case 7: viewOrderInfo(authorisedUser, esql); break;
-                   case 8: viewStores(esql); break;
-                   case 9: 
-                      if (!userRole.equals("customer")) {
-                         updateOrderStatus(authorisedUser, esql); 
-                      }
-                      break;
-                    case 10: 
-                      if (!userRole.equals("customer")) {
-                         updateMenu(authorisedUser, esql); 
-                      }
-                      break;
-                    case 11: 
-                      if (!userRole.equals("customer")) {
-                         updateUser(authorisedUser, esql); 
-                      }
-                      break;
- 
-
-
-
-                   case 20: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
+                int choice = readChoice();
+                String action = actionName(choice);
+                if (action != null) {
+                   esql.stats().beginAction();
                 }
+                if (isReadOnly(choice)) {
+                   esql.beginRead(session.login);
+                }
+                boolean completed = false;
+                try{
+                   switch (choice){
+                      case 1: viewProfile(session, esql); break;
+                      case 2: updateProfile(session, esql); break;
+                      case 3: viewMenu(esql); break;
+                      case 4: placeOrder(session, esql); break;
+                      case 5: viewAllOrders(session, esql); break;
+                      case 6: viewRecentOrders(session, esql); break;
+                      case 7: viewOrderInfo(session, esql); break;
+                      case 8: viewStores(esql); break;
+                      case 9: 
+                         if (!session.isCustomer()) {
+                            updateOrderStatus(session, esql); 
+                         }
+                         break;
+                       case 10: 
+                         if (!session.isCustomer()) {
+                            updateMenu(session, esql); 
+                         }
+                         break;
+                       case 11: 
+                         if (!session.isCustomer()) {
+                            updateUser(session, esql); 
+                         }
+                         break;
+                      case 12:
+                         if (session.isManager()) {
+                            viewStats(esql);
+                         }
+                         break;
+                      case 13:
+                         if (session.isManager()) {
+                            viewSales(esql);
+                         }
+                         break;
+                      case 14:
+                         if (session.isManager()) {
+                            viewPopular(esql);
+                         }
+                         break;
+ 
+
+
+
+                      case 20: usermenu = false; break;
+                      default : System.out.println("Unrecognized choice!"); break;
+                   }
+                   completed = true;
+                }finally{
+                   esql.endRead();
+                   // handlers report their own errors through failAction
+                   if (action != null) {
+                      esql.stats().endAction(action, !completed);
+                   }
+                }//end try
               }
             }
          }//end while
@@ -316,6 +1360,9 @@ public class PizzaStore {
       }finally{
          // make sure to cleanup the created table and close the connection.
          try{
+            if(server != null) {
+               server.stop ();
+            }//end if
             if(esql != null) {
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
@@ -354,6 +1401,39 @@ public class PizzaStore {
       return input;
    }//end readChoice
 
+   /*
+    * Prints result rows as an aligned table under a header line, a page at
+    * a time, through TableRenderer.
+    **/
+   public static void printRows(List<List<String>> rows, String... columns) throws IOException {
+      if (rows.isEmpty()) {
+         return;
+      }
+      TableRenderer.print(rows, columns);
+   }//end printRows
+
+   /*
+    * Prints rows as a table with a first column numbering them from 1, for
+    * lists the user picks an entry from by number.
+    **/
+   public static void printNumbered(List<List<String>> rows, String... columns) throws IOException {
+      List<List<String>> numbered = new ArrayList<List<String>>(rows.size());
+      for (int i = 0; i < rows.size(); i++) {
+         List<String> row = new ArrayList<String>(rows.get(i).size() + 1);
+         row.add(Integer.toString(i + 1));
+         row.addAll(rows.get(i));
+         numbered.add(row);
+      }
+      TableRenderer.print(numbered, columns);
+   }//end printNumbered
+
+   public static void printRows(ResultTable table) throws IOException {
+      if (table.rowCount() == 0) {
+         return;
+      }
+      TableRenderer.print(table);
+   }//end printRows
+
    /*
     * Creates a new user
     **/
@@ -369,15 +1449,10 @@ public class PizzaStore {
             return;
          }
 
-         String checkUserAvail = "SELECT DISTINCT(U.login) FROM Users U WHERE U.login = '" + usernameInput + "'";
-         int userAvail = esql.executeQuery(checkUserAvail);
-
-         while (userAvail != 0) {
+         while (esql.loginExists(usernameInput)) {
             System.out.print("That username has already been taken. Please enter another username: ");
 
             usernameInput = in.readLine();
-            checkUserAvail = "SELECT DISTINCT(U.login) FROM Users U WHERE U.login = '" + usernameInput + "'";
-            userAvail = esql.executeQuery(checkUserAvail);
          }
 
          System.out.print("\nPlease enter your password: ");
@@ -413,8 +1488,7 @@ public class PizzaStore {
             return;
          }
 
-         String addNewUser = "INSERT INTO Users VALUES ('" + usernameInput + "', '" + pass1Input + "', 'customer', NULL, '" + phoneInput + "')";
-         esql.executeUpdate(addNewUser);
+         esql.createUser(usernameInput, pass1Input, phoneInput);
 
          System.out.println("Account has been created!");
          System.out.println("\n- - - - - - - - - - - - - - - - -\n");
@@ -429,9 +1503,9 @@ public class PizzaStore {
 
    /*
     * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * @return the user's session or null if the credentials do not match
     **/
-   public static String LogIn(PizzaStore esql){
+   public static Session LogIn(PizzaStore esql){
       try {
          System.out.println("\n- - - - - - - - - - - - - - - - -\n");
          System.out.println("USER LOGIN");
@@ -440,24 +1514,18 @@ public class PizzaStore {
 
          String usernameInput = in.readLine();
 
-         String checkUser = "SELECT DISTINCT(U.login) FROM Users U WHERE U.login = '" + usernameInput + "'";
-         int userAvail = esql.executeQuery(checkUser);
-
-         if (userAvail == 1) {
-            System.out.print("Please enter your password: ");
-            String passInput = in.readLine();
+         //one query checks the login and the password together
+         System.out.print("Please enter your password: ");
+         String passInput = in.readLine();
 
-            String checkPass = "SELECT DISTINCT(U.login) FROM Users U WHERE U.login = '" + usernameInput + "' AND U.password = '" + passInput + "'";
-            int passCorrect = esql.executeQuery(checkPass);
+         Session session = esql.authenticate(usernameInput, passInput);
+         if (session != null) {
+            System.out.println(
+                        "\n\n*******************************************************\n" +
+                        "              Welcome back " + usernameInput + "      	       \n" +
+                        "*******************************************************\n");
+            return session;
 
-            if (passCorrect == 1) {
-               System.out.println(
-                           "\n\n*******************************************************\n" +
-                           "              Welcome back " + usernameInput + "      	       \n" +
-                           "*******************************************************\n");
-               return usernameInput;
-
-            }
          }
 
       } catch(Exception e){
@@ -470,36 +1538,193 @@ public class PizzaStore {
 
 // Rest of the functions definition go in here
 
-   public static void viewProfile(String authorisedUser, PizzaStore esql) {
+   /**
+    * @return the name of a user menu choice in the action statistics, or null
+    */
+   static String actionName(int choice) {
+      switch (choice) {
+         case 1: return "viewProfile";
+         case 2: return "updateProfile";
+         case 3: return "viewMenu";
+         case 4: return "placeOrder";
+         case 5: return "viewAllOrders";
+         case 6: return "viewRecentOrders";
+         case 7: return "viewOrderInfo";
+         case 8: return "viewStores";
+         case 9: return "updateOrderStatus";
+         case 10: return "updateMenu";
+         case 11: return "updateUser";
+         case 13: return "viewSales";
+         default: return null;
+      }
+   }//end actionName
+
+   /**
+    * @return true for the user menu choices that only read, which may be
+    *         served by the read replica
+    */
+   static boolean isReadOnly(int choice) {
+      switch (choice) {
+         case 3: case 5: case 6: case 7: case 8: case 13: return true;
+         default: return false;
+      }
+   }//end isReadOnly
+
+   public static void viewStats(PizzaStore esql) {
+      System.out.println("\n- - - - - - - - - - - - - - - - -\n");
+      System.out.println("PERFORMANCE STATS (also published over JMX as PizzaStore:type=Query/Action)");
+      System.out.println("---------------");
+
+      System.out.println("\nUser actions, database time per action:");
+      printStats(esql.stats().actions(), 30);
+      System.out.println("\nQuery shapes, most total time first:");
+      printStats(esql.stats().queries(), 20);
+      System.out.println("\n- - - - - - - - - - - - - - - - -\n");
+   }
+
+   public static void viewSales(PizzaStore esql) {
+      try {
+         System.out.println("\n- - - - - - - - - - - - - - - - -\n");
+         System.out.println("SALES");
+         System.out.println("---------------");
+         System.out.println("(1) Sales per day");
+         System.out.println("(2) Sales per hour");
+         System.out.println("(3) Top stores by revenue");
+         System.out.println("(4) Top selling items");
+         int report = readChoice();
+         if (report < 1 || report > 4) {
+            System.out.println("Unrecognized choice!");
+            return;
+         }
+
+         //whole days, read from the daily or hourly rollups
+         System.out.print("From date (yyyy-mm-dd): ");
+         LocalDate first = LocalDate.parse(in.readLine().trim());
+         System.out.print("To date, inclusive (yyyy-mm-dd, blank for the same day): ");
+         String lastInput = in.readLine().trim();
+         LocalDate last = lastInput.isEmpty() ? first : LocalDate.parse(lastInput);
+         Timestamp from = Timestamp.valueOf(first.atStartOfDay());
+         Timestamp to = Timestamp.valueOf(last.plusDays(1).atStartOfDay());
+
+         Integer storeID = null;
+         if (report != 3) {
+            System.out.print("Only store ID (blank for all stores): ");
+            String storeInput = in.readLine().trim();
+            if (!storeInput.isEmpty())
+               storeID = Integer.parseInt(storeInput);
+         }
+         int limit = 10;
+         if (report >= 3) {
+            System.out.print("How many (blank for 10): ");
+            String limitInput = in.readLine().trim();
+            if (!limitInput.isEmpty())
+               limit = Integer.parseInt(limitInput);
+         }
+
+         ResultTable rows;
+         switch (report) {
+            case 1: rows = esql.sales().sales(from, to, storeID, false); break;
+            case 2: rows = esql.sales().sales(from, to, storeID, true); break;
+            case 3: rows = esql.sales().topStores(from, to, limit); break;
+            default: rows = esql.sales().topItems(from, to, storeID, limit); break;
+         }
+         printRows(rows);
+         if (rows.rowCount() == 0) {
+            System.out.println("No sales were found");
+         }
+         System.out.println("\n- - - - - - - - - - - - - - - - -\n");
+      } catch(Exception e) {
+         esql.stats().failAction();
+         System.err.println(e.getMessage());
+      }
+   }
+
+   public static void viewPopular(PizzaStore esql) {
       try {
-         String userProfile = "SELECT login, password, favoriteItems, phonenum FROM Users WHERE login = '" + authorisedUser + "'";
+         System.out.println("\n- - - - - - - - - - - - - - - - -\n");
+         System.out.println("POPULAR NOW (orders placed through this program, last "
+                            + (PopularityTracker.WINDOW_MILLIS / 60000) + " minutes)");
+         System.out.println("---------------");
+
+         System.out.println("\nTop items by quantity:");
+         printCounts(esql.popular().topItems(null, 10), "Item");
+         System.out.println("\nTop stores by orders:");
+         printCounts(esql.popular().topStores(10), "Store ID");
+
+         System.out.print("\nShow the top items of store ID (blank to go back): ");
+         String storeInput = in.readLine().trim();
+         if (!storeInput.isEmpty()) {
+            printCounts(esql.popular().topItems(Integer.parseInt(storeInput), 10), "Item");
+         }
+         System.out.println("\n- - - - - - - - - - - - - - - - -\n");
+      } catch(Exception e) {
+         esql.stats().failAction();
+         System.err.println(e.getMessage());
+      }
+   }
 
+   //counts are estimates between at least and at most
+   static void printCounts(List<PopularityTracker.Count> counts, String name) throws IOException {
+      List<List<String>> rows = new ArrayList<List<String>>();
+      for (PopularityTracker.Count count : counts) {
+         List<String> row = new ArrayList<String>();
+         row.add(count.key);
+         row.add(String.valueOf(count.count - count.error));
+         row.add(String.valueOf(count.count));
+         rows.add(row);
+      }
+      printRows(rows, name, "At least", "At most");
+      if (rows.isEmpty()) {
+         System.out.println("Nothing ordered yet");
+      }
+   }
+
+   static void printStats(List<QueryStats.Metric> metrics, int limit) {
+      System.out.println(String.format("%-60s %8s %6s %9s %11s %8s %8s %8s %8s", "name", "count", "errors",
+                                       "rows", "bytes", "mean ms", "p50 ms", "p99 ms", "max ms"));
+      for (int i = 0; i < metrics.size() && i < limit; i++) {
+         QueryStats.Metric m = metrics.get(i);
+         String name = m.getName().replaceAll("\\s+", " ");
+         if (name.length() > 60) {
+            name = name.substring(0, 57) + "...";
+         }
+         System.out.println(String.format("%-60s %8d %6d %9d %11d %8.2f %8.2f %8.2f %8.2f", name, m.getCount(),
+                                          m.getErrors(), m.getRows(), m.getBytes(), m.getMeanMillis(),
+                                          m.getP50Millis(), m.getP99Millis(), m.getMaxMillis()));
+      }
+      if (metrics.isEmpty()) {
+         System.out.println("Nothing recorded yet");
+      }
+   }
+
+   public static void viewProfile(Session session, PizzaStore esql) {
+      try {
          System.out.println();
-         List<String> output = esql.executeQueryAndReturnResult(userProfile).get(0);
 
          System.out.println("- - - - - - - - - - - - - - - - -\n");
          System.out.println("USER PROFILE");
          System.out.println("------------");
-         System.out.println("Username: " + output.get(0));
-         System.out.println("Password: " + output.get(1));
+         System.out.println("Username: " + session.login);
+         System.out.println("Password: " + session.password);
 
 
-         String favItems = output.get(2);
+         String favItems = session.favoriteItems;
          if (favItems == null) {
             favItems = "Currently empty";
          }
 
          System.out.println("Favorite Item: " + favItems);
-         System.out.println("Phone Number: " + output.get(3));
+         System.out.println("Phone Number: " + session.phoneNum);
          System.out.println("\n- - - - - - - - - - - - - - - - -\n");
 
       } catch(Exception e){
+         esql.stats().failAction();
          System.err.println (e.getMessage());
       }
    }
 
 
-   public static void updateProfile(String authorisedUser, PizzaStore esql) {
+   public static void updateProfile(Session session, PizzaStore esql) {
       try {
          boolean viewingProfile = true;
 
@@ -515,24 +1740,28 @@ public class PizzaStore {
 
             switch(readChoice()) {
                case 1:
-                  String itemList = "SELECT itemName FROM Items";
-                  List<List<String>> menu = esql.executeQueryAndReturnResult(itemList);
+                  List<List<String>> menu = esql.menuItems(null, null, SORT_NONE);
 
                   System.out.println("List of items:");
-                  for (int i = 0; i < menu.size(); i++) {
-                     System.out.println(i + ": " + menu.get(i));
+                  List<List<String>> names = new ArrayList<List<String>>();
+                  for (List<String> item : menu) {
+                     List<String> row = new ArrayList<String>(2);
+                     row.add(Integer.toString(names.size()));
+                     row.add(item.get(0));
+                     names.add(row);
                   }
+                  printRows(names, "Number", "Item");
 
                   System.out.print("Select the number of your favorite item: ");
                   Integer favItemInput = Integer.parseInt(in.readLine());
 
-                  if (favItemInput < 0 || favItemInput > menu.size()) {
+                  if (favItemInput < 0 || favItemInput >= menu.size()) {
                      System.out.println("Not an option.");
                      break;
                   }
                   
-                  String favItemQuery = "UPDATE Users SET favoriteItems = '" + menu.get(favItemInput).get(0) + "' WHERE login = '" + authorisedUser + "'";
-                  esql.executeUpdate(favItemQuery);
+                  esql.updateUserField(session.login, "favoriteItems", menu.get(favItemInput).get(0));
+                  session.apply("favoriteItems", menu.get(favItemInput).get(0));
                   System.out.println("Your favorite item has been changed to " + menu.get(favItemInput).get(0));
 
                   break;
@@ -545,8 +1774,8 @@ public class PizzaStore {
                   String pass2Input = in.readLine();
 
                   if (pass1Input.equals(pass2Input)) {
-                     String passUpdateQuery = "UPDATE Users SET password = '" + pass1Input + "' WHERE login = '" + authorisedUser + "'";
-                     esql.executeUpdate(passUpdateQuery);
+                     esql.updateUserField(session.login, "password", pass1Input);
+                     session.apply("password", pass1Input);
                      System.out.println("Your password has been changed.");
                      
                   } else {
@@ -559,8 +1788,8 @@ public class PizzaStore {
                   System.out.print("Please enter your new phone number: ");
                   String phoneInput = in.readLine();
 
-                  String phoneQuery = "UPDATE Users SET phoneNum = '" + phoneInput + "' WHERE login = '" + authorisedUser + "'";
-                  esql.executeUpdate(phoneQuery);
+                  esql.updateUserField(session.login, "phoneNum", phoneInput);
+                  session.apply("phoneNum", phoneInput);
                   System.out.println("Your phone number has been changed!");
                      
                   break;
@@ -575,6 +1804,7 @@ public class PizzaStore {
          }
 
       } catch(Exception e){
+         esql.stats().failAction();
          System.err.println (e.getMessage());
       }
    }
@@ -585,17 +1815,17 @@ public class PizzaStore {
          System.out.println("\n- - - - - - - - - - - - - - - - -\n");
          System.out.println("VIEWING MENU");
          System.out.println("---------------");
-         String itemList = "SELECT itemName, typeOfItem, price FROM Items";
 
-         List<List<String>> menu = esql.executeQueryAndReturnResult(itemList);
+         // current filters, applied together by menuItems
+         String typeFilter = null;
+         BigDecimal priceFilter = null;
+         int ordered = SORT_NONE;
 
-         System.out.println("| Number ----- Items ----- Food Type ----- Price |");
-         for (int i = 0; i < menu.size(); i++) {
-            System.out.println("| " + (i + 1) + " ----- " + menu.get(i).get(0) + " ----- " + menu.get(i).get(1) + " ----- " + menu.get(i).get(2));
-         }
+         List<List<String>> menu = esql.menuItems(typeFilter, priceFilter, ordered);
+
+         printNumbered(menu, "Number", "Items", "Food Type", "Price");
 
          boolean adjustMenuView = true;
-         int ordered = 0;
 
          System.out.println("\n- - - - - - - - - - - - - - - - -");
 
@@ -608,108 +1838,77 @@ public class PizzaStore {
             System.out.println("4. Search by food type");
             System.out.println("5. Search for food under certain price");
             System.out.println("6. Get full menu");
+            System.out.println("7. Popular now (most ordered in the last hour first)");
             System.out.println("9. Exit");
 
             switch(readChoice()) {
 
-               case 1:
-                  if (ordered == 0) {
-                     itemList += " ORDER BY price DESC";
-
-                  } else if (ordered == 2) {
-                     itemList = itemList.substring(0, itemList.length() - 5);
-                     itemList += " DESC";
-                  }
-
-                  ordered = 1;
-
-                  menu = esql.executeQueryAndReturnResult(itemList);
-
-
-                  break;
-
-               case 2: 
-                  if (ordered == 0) {
-                     itemList += " ORDER BY price ASC ";
-                     
-                  } else if (ordered == 1) {
-                     itemList = itemList.substring(0, itemList.length() - 5);
-                     itemList += " ASC ";
-                  }
-
-                  ordered = 2;
-
-                  menu = esql.executeQueryAndReturnResult(itemList);
-                  
-                  break;
+               case 1: ordered = SORT_PRICE_DESC; break;
 
-               case 3: 
-                  itemList = itemList.substring(0, itemList.length() - 19);
-                  menu = esql.executeQueryAndReturnResult(itemList);
+               case 2: ordered = SORT_PRICE_ASC; break;
 
-                  ordered = 0;
-
-                  break;
+               case 3: ordered = SORT_NONE; break;
 
                case 4: 
-                  String foodTypeList = "SELECT DISTINCT(typeOfItem) FROM Items";
-                  menu = esql.executeQueryAndReturnResult(foodTypeList);
+                  List<String> foodTypes = esql.itemTypes();
 
                   System.out.println("Available options:");
-                  for (int i = 0; i < menu.size(); i++) {
-                     System.out.println("| " + (i + 1) + ": " + menu.get(i).get(0));
+                  for (int i = 0; i < foodTypes.size(); i++) {
+                     System.out.println("| " + (i + 1) + ": " + foodTypes.get(i));
                   }
 
                   System.out.print("Select a food type: ");
                   String userInput = in.readLine();
 
-                  itemList = "SELECT itemName, typeOfItem, price FROM Items WHERE typeOfItem = '" + menu.get(Integer.parseInt(userInput) - 1).get(0) + "'";
-
-                  menu = esql.executeQueryAndReturnResult(itemList);
-               
-                  ordered = 0;
+                  typeFilter = foodTypes.get(Integer.parseInt(userInput) - 1);
+                  priceFilter = null;
+                  ordered = SORT_NONE;
                   break;
 
                case 5:
                   System.out.println("Enter a price:");
                   userInput = in.readLine();
 
-                  itemList = "SELECT itemName, typeOfItem, price FROM Items WHERE price < '" + Double.parseDouble(userInput) + "'";
-                  menu = esql.executeQueryAndReturnResult(itemList);
-
-                  ordered = 0;
+                  priceFilter = new BigDecimal(userInput.trim());
+                  typeFilter = null;
+                  ordered = SORT_NONE;
                   break;
 
                case 6:
-                  itemList = "SELECT itemName, typeOfItem, price FROM Items";
-                  menu = esql.executeQueryAndReturnResult(itemList);
-
-                  ordered = 0;
+                  typeFilter = null;
+                  priceFilter = null;
+                  ordered = SORT_NONE;
                   break;
 
+               case 7: ordered = SORT_POPULAR; break;
+
                case 9: adjustMenuView = false; break;
 
                default: System.out.println("Unrecognized choice!"); break;
             }
 
+            if (!adjustMenuView) {
+               break;
+            }
+
+            menu = esql.menuItems(typeFilter, priceFilter, ordered);
+
             System.out.println("VIEWING MENU");
             System.out.println("---------------");
 
-            System.out.println("| Number ----- Items ----- Food Type ----- Price |");
-            for (int i = 0; i < menu.size(); i++) {
-               System.out.println("| " + (i + 1) + " ----- " + menu.get(i).get(0) + " ----- " + menu.get(i).get(1) + " ----- " + menu.get(i).get(2));
-            }
+            printNumbered(menu, "Number", "Items", "Food Type", "Price");
 
          }
           
       System.out.println("\n- - - - - - - - - - - - - - - - -\n");
       } catch(Exception e) {
+         esql.stats().failAction();
          System.err.println(e.getMessage());
       }
          
    }
 	
-   public static void placeOrder(String authorisedUser, PizzaStore esql) {
+   public static void placeOrder(Session session, PizzaStore esql) {
        try {
           System.out.println("\n- - - - - - - - - - - - - - - - -\n");
           System.out.println("PLACING ORDER");
@@ -717,42 +1916,33 @@ public class PizzaStore {
           System.out.print("Input the city you are in: ");
           String cityLoc = in.readLine();
  
-          String locationQuery = "SELECT address, city, state FROM Store WHERE city = '" + cityLoc + "'";
-          List<List<String>> location = esql.executeQueryAndReturnResult(locationQuery);
+          List<List<String>> location = esql.stores(cityLoc, null, true);
+          if (location.isEmpty()) {
+             System.out.println("There are no open stores in " + cityLoc + ".");
+             return;
+          }
  
-          System.out.println("| Store Number ----- Store Location |");
-          for (int i = 0; i < location.size(); i++) {
-             System.out.println("| " + (i + 1) + " ----- " + location.get(i).get(0) + ", " + location.get(i).get(1) + ", " + location.get(i).get(2));
+          List<List<String>> addresses = new ArrayList<List<String>>();
+          for (List<String> store : location) {
+             addresses.add(store.subList(1, 4));
           }
+          printNumbered(addresses, "Store Number", "Address", "City", "State");
  
           System.out.print("Select the store number to place order at: ");
           String inputNum = in.readLine();
  
-          String findNewestOrder = "SELECT orderID FROM FoodOrder ORDER BY orderID DESC LIMIT 1";
-          int newOrderId = Integer.parseInt(esql.executeQueryAndReturnResult(findNewestOrder).get(0).get(0)) + 1;
+          int storeID = Integer.parseInt(location.get(Integer.parseInt(inputNum) - 1).get(0));
  
-          locationQuery = "SELECT storeID FROM Store WHERE address = '" + location.get(Integer.parseInt(inputNum) - 1).get(0) + "'";
-          int storeID = Integer.parseInt(esql.executeQueryAndReturnResult(locationQuery).get(0).get(0));
- 
-          SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-          Timestamp timestamp = new Timestamp(System.currentTimeMillis());
- 
-          String newOrderQuery = "INSERT INTO FoodOrder VALUES (" + newOrderId + ", '" +  authorisedUser + "', " + storeID + ", 0, timestamp '" + dateFormat.format(timestamp) + "', 'incomplete')";
- 
-          esql.executeUpdate(newOrderQuery);
-          
+          //the cart stays in memory until the order is submitted in one transaction
+          Map<String, Integer> cart = new LinkedHashMap<String, Integer>();
           boolean placingOrder = true;
-          double totalPrice = 0.0;
           boolean cancelOrder = false;
  
           while (placingOrder) {
              System.out.print("Input the name of the item you want to order: ");
              String itemName = in.readLine();
  
-             String validItem = "SELECT DISTINCT(itemName) FROM Items WHERE itemName = '" + itemName + "'";
-             int itemCheck = esql.executeQuery(validItem);
-             
-             while (itemCheck == 0) {
+             while (!esql.itemExists(itemName)) {
                 System.out.print("Invalid item.  Please try again or type cancel to stop placing your order: ");
                 itemName = in.readLine();
  
@@ -760,10 +1950,6 @@ public class PizzaStore {
                    cancelOrder = true;
                    break;
                 }
- 
-                validItem = "SELECT DISTINCT(itemName) FROM Items WHERE itemName = '" + itemName + "'";
-                itemCheck = esql.executeQuery(validItem);
- 
              }
  
              if (cancelOrder) {
@@ -784,14 +1970,8 @@ public class PizzaStore {
                    System.out.println("Item added to order.");
                 }
  
-                String inputOrderQuery = "INSERT INTO ItemsInOrder VALUES (" + newOrderId + ", '" + itemName + "', " + Integer.parseInt(quantity) + ")";
-                esql.executeUpdate(inputOrderQuery);
- 
-                String itemPriceQuery = "SELECT price FROM Items WHERE itemName = '" + itemName + "'";
-                double itemPrice = Double.parseDouble(esql.executeQueryAndReturnResult(itemPriceQuery).get(0).get(0));
- 
-                double total = (itemPrice * Integer.parseInt(quantity));
-                totalPrice += total;
+                Integer inCart = cart.get(itemName);
+                cart.put(itemName, (inCart == null ? 0 : inCart) + Integer.parseInt(quantity));
  
              } else {
                 System.out.println("Item has not been added.");
@@ -800,16 +1980,18 @@ public class PizzaStore {
              System.out.print("Type 1 to place the order or type anything else to add another item: ");
              String place1 = in.readLine();
  
-             if (Integer.parseInt(place1) == 1) {
+             if (place1.trim().equals("1")) {
                 System.out.print("Type 1 for confirmation to place your order: ");
                 String place2 = in.readLine();
  
-                if (Integer.parseInt(place2) == 1) {
+                if (place2.trim().equals("1")) {
+                   if (cart.isEmpty()) {
+                      System.out.println("Your order has no items.");
+                      continue;
+                   }
                    placingOrder = false;
-                   System.out.println("Order has been placed!");
- 
-                   String updateTotalPrice = "UPDATE FoodOrder SET totalPrice = " + totalPrice + " WHERE orderID = " + newOrderId;
-                   esql.executeUpdate(updateTotalPrice);
+                   int newOrderId = esql.submitOrder(session.login, storeID, cart);
+                   System.out.println("Order " + newOrderId + " has been placed! Total price: " + esql.cartTotal(cart));
                 }
  
              }
@@ -818,132 +2000,130 @@ public class PizzaStore {
           }
   
        } catch(Exception e) {
+          esql.stats().failAction();
           System.err.println(e.getMessage());
        }
     }
    
-   public static void viewAllOrders(String authorisedUser, PizzaStore esql) {
+   public static void viewAllOrders(Session session, PizzaStore esql) {
       try {
          System.out.println("\n- - - - - - - - - - - - - - - - -\n");
          System.out.println("VIEW ALL ORDERS");
          System.out.println("--------------");
 
-         //first determine whether a user is a customer or not
-         String getRole = "SELECT role FROM Users WHERE login = '" + authorisedUser + "'";
-         String role = esql.executeQueryAndReturnResult(getRole).get(0).get(0);
-
-
-         String getAllOrders;
-         //implement customerID only order
-         if (role.equals("customer")) {
-            getAllOrders = "SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus " + 
-            "FROM FoodOrder WHERE login = '" + authorisedUser +
-            "' ORDER BY orderTimeStamp DESC";
-         } //next, implement driver and manager view
-         else {
-            getAllOrders = "SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus " + 
-            "FROM FoodOrder ORDER BY orderTimeStamp DESC";
+         //customers only see their own orders, drivers and managers see all
+         //and may narrow them to one store
+         Integer storeID = null;
+         if (!session.isCustomer()) {
+            System.out.print("Only show orders from store ID (blank for all stores): ");
+            String storeInput = in.readLine().trim();
+            if (!storeInput.isEmpty())
+               storeID = Integer.parseInt(storeInput);
          }
+         System.out.print("Only show orders with status complete or incomplete (blank for all): ");
+         String status = in.readLine().trim();
+         System.out.print("Orders per page (blank for " + OrderPager.DEFAULT_PAGE_SIZE + "): ");
+         String sizeInput = in.readLine().trim();
+         int pageSize = sizeInput.isEmpty() ? OrderPager.DEFAULT_PAGE_SIZE : Integer.parseInt(sizeInput);
+
+         OrderPager pager = new OrderPager(esql, session.isCustomer() ? session.login : null,
+                                           storeID, status.isEmpty() ? null : status, pageSize);
+         ResultTable orders = pager.first();
 
          //catch no-result queries
-         int results = esql.executeQueryAndPrintResult(getAllOrders);
-         if (results == 0) {
+         if (orders.rowCount() == 0) {
             System.out.println("No order history was found");
          }
 
+         while (orders.rowCount() > 0) {
+            printRows(orders);
+            System.out.print("\n" + (pager.hasOlder() ? "n: next page  " : "")
+                             + (pager.hasNewer() ? "p: previous page  " : "") + "anything else: exit ");
+            String choice = in.readLine().trim();
+            if (choice.equals("n") && pager.hasOlder())
+               orders = pager.older();
+            else if (choice.equals("p") && pager.hasNewer())
+               orders = pager.newer();
+            else
+               break;
+         }
+
          System.out.println("\n- - - - - - - - - - - - - - - - -\n");
    
       } catch(Exception e) {
+         esql.stats().failAction();
          System.err.println(e.getMessage());
       }
    }
 
-   public static void viewRecentOrders(String authorisedUser, PizzaStore esql) {
+   public static void viewRecentOrders(Session session, PizzaStore esql) {
        try {
           System.out.println("\n- - - - - - - - - - - - - - - - -\n");
           System.out.println("VIEW YOUR 5 MOST RECENT ORDERS"); 
           System.out.println("---------------");
  
-          String getRole = "SELECT role FROM Users WHERE login = '" + authorisedUser +"'";
-          String role = esql.executeQueryAndReturnResult(getRole).get(0).get(0).trim();
-          
-          String getRecent = "";
- 
-          //implement customer view
-          if (role.equals("customer")) {
-             getRecent = "SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus " +
-             "FROM FoodOrder WHERE login = '" + authorisedUser + "' ORDER BY orderTimeStamp DESC LIMIT 5";
-          } //implement manager and driver view
-          else {
+          String login = session.login;
+ 
+          //implement manager and driver view
+          if (!session.isCustomer()) {
              System.out.println("Press '0' to search all orders");
              System.out.println("Press any other number (1-9) to search by specific user");
  
              int choice = readChoice();
  
              if (choice == 0) {
-                getRecent = "SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus " +
-                "FROM FoodOrder ORDER BY orderTimeStamp DESC LIMIT 5";
+                login = null;
              }
              else {
-                Scanner scanner = new Scanner(System.in);
                 System.out.print("Enter a username: "); //get the customer/username
-                String userName = scanner.nextLine();
-                getRecent = "SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus " +
-                "FROM FoodOrder WHERE login = '" + userName + "' ORDER BY orderTimeStamp DESC LIMIT 5";
+                login = in.readLine();
              }
              
           }
  
-          int results = esql.executeQueryAndPrintResult(getRecent);
-          if (results == 0) {
+          List<List<String>> orders = esql.orders(login, 5);
+          printRows(orders, "orderid", "storeid", "totalprice", "ordertimestamp", "orderstatus");
+          if (orders.isEmpty()) {
              System.out.println("No order history was found\n");
           }
  
           System.out.println("\n- - - - - - - - - - - - - - - - -\n");
  
        } catch(Exception e) {
+          esql.stats().failAction();
           System.err.println(e.getMessage());
        }
     }
-   public static void viewOrderInfo(String authorisedUser, PizzaStore esql) {
+   public static void viewOrderInfo(Session session, PizzaStore esql) {
        try {
           System.out.println("\n- - - - - - - - - - - - - - - - -\n");
           System.out.println("VIEWING ORDER INFO");
           System.out.println("---------------");
  
-          //first get the role from the user to determine whether they're a customer or not
-          String getRole = "SELECT role FROM Users WHERE login = '" + authorisedUser +"'";
-          String role = esql.executeQueryAndReturnResult(getRole).get(0).get(0).trim();
- 
           //implement customer only query
-          String getOrderInfo;
+          List<List<String>> result;
  
-          if (role.equals("customer")) {
+          if (session.isCustomer()) {
              System.out.println("Would you like to view your most recent orders first? (0 for no, 1-9 for yes)");
              int choice = readChoice();
              if (choice != 0) {
-                viewRecentOrders(authorisedUser, esql);
+                viewRecentOrders(session, esql);
              }
              //TODO: if they have no orders on record exit out immediately
              System.out.print("Please enter your orderID: "); //get orderID in order to better help the customer
              int orderID = Integer.parseInt(in.readLine());
  
-             getOrderInfo = "SELECT orderTimeStamp, totalPrice, orderStatus, itemName, quantity FROM FoodOrder " +
-                                   "NATURAL JOIN ItemsInOrder WHERE login = '" + authorisedUser + "'" +
-                                   "AND orderID = '" + orderID + "'";
+             result = esql.orderInfo(orderID, session.login);
  
           }
           else {//implement function to get any order
              System.out.print("Please enter the orderID: "); //get orderID in order to better help the manager/driver
              int orderID = Integer.parseInt(in.readLine());
              
-             getOrderInfo = "SELECT orderTimeStamp, totalPrice, orderStatus, itemName, quantity FROM FoodOrder " +
-                                   "NATURAL JOIN ItemsInOrder WHERE orderID = '" + orderID + "'";
+             result = esql.orderInfo(orderID, null);
              
           }
  
-          List<List<String>> result = esql.executeQueryAndReturnResult(getOrderInfo);
- 
           if (result.isEmpty()) {
              System.out.println("Sorry, either this order was not found, or you do not have access to this order.");
              return;
@@ -957,14 +2137,16 @@ public class PizzaStore {
  
          //print items in the order
          System.out.println("\nITEMS IN ORDER:");
-         System.out.println("Item Name\tQuantity");
+         List<List<String>> lines = new ArrayList<List<String>>();
          for (List<String> row : result) {
-             System.out.println(row.get(3) + "\t\t" + row.get(4));
+             lines.add(row.subList(3, 5));
          }
+         printRows(lines, "Item Name", "Quantity");
           System.out.println("\n- - - - - - - - - - - - - - - - -\n");
           
  
        } catch(Exception e) {
+          esql.stats().failAction();
           System.err.println(e.getMessage());
        }
     }
@@ -972,72 +2154,55 @@ public class PizzaStore {
    public static void viewStores(PizzaStore esql) {
        try {
           System.out.println("\n- - - - - - - - - - - - - - - - -\n");
-           System.out.println("VIEWING ORDER INFO");
-           System.out.println("---------------");
-  
-           //first get the role from the user to determine whether they're a customer or not
-           String getRole = "SELECT role FROM Users WHERE login = '" + authorisedUser +"'";
-           String role = esql.executeQueryAndReturnResult(getRole).get(0).get(0).trim();
-  
-           //implement customer only query
-           String getOrderInfo;
-  
-           if (role.equals("customer")) {
-              System.out.println("Would you like to view your most recent orders first? (0 for no, 1-9 for yes)");
-              int choice = readChoice();
-              if (choice != 0) {
-                 viewRecentOrders(authorisedUser, esql);
-              }
-              //TODO: if they have no orders on record exit out immediately
-              System.out.print("Please enter your orderID: "); //get orderID in order to better help the customer
-              int orderID = Integer.parseInt(in.readLine());
-  
-              getOrderInfo = "SELECT orderTimeStamp, totalPrice, orderStatus, itemName, quantity FROM FoodOrder " +
-                                    "NATURAL JOIN ItemsInOrder WHERE login = '" + authorisedUser + "'" +
-                                    "AND orderID = '" + orderID + "'";
-  
-           }
-           else {//implement function to get any order
-              System.out.print("Please enter the orderID: "); //get orderID in order to better help the manager/driver
-              int orderID = Integer.parseInt(in.readLine());
-              
-              getOrderInfo = "SELECT orderTimeStamp, totalPrice, orderStatus, itemName, quantity FROM FoodOrder " +
-                                    "NATURAL JOIN ItemsInOrder WHERE orderID = '" + orderID + "'";
-              
-           }
-  
-           List<List<String>> result = esql.executeQueryAndReturnResult(getOrderInfo);
-  
-           if (result.isEmpty()) {
-              System.out.println("Sorry, either this order was not found, or you do not have access to this order.");
-              return;
-           }
-  
-          //print order details
-          System.out.println("\nORDER DETAILS:");
-          System.out.println("Order Timestamp: " + result.get(0).get(0));
-          System.out.println("Total Price: " + result.get(0).get(1));
-          System.out.println("Order Status: " + result.get(0).get(2));
-  
-          //print items in the order
-          System.out.println("\nITEMS IN ORDER:");
-          System.out.println("Item Name\tQuantity");
-          for (List<String> row : result) {
-              System.out.println(row.get(3) + "\t\t" + row.get(4));
+          System.out.println("VIEWING STORES");
+          System.out.println("---------------");
+          System.out.println("1. View all stores");
+          System.out.println("2. Filter by state");
+          System.out.println("3. Filter by city");
+          System.out.println("4. View open stores");
+          System.out.println("9. Exit");
+
+          List<List<String>> stores;
+
+          switch(readChoice()) {
+             case 1:
+                stores = esql.stores(null, null, false);
+                break;
+
+             case 2:
+                System.out.print("Enter a state: ");
+                stores = esql.stores(null, in.readLine().trim(), false);
+                break;
+
+             case 3:
+                System.out.print("Enter a city: ");
+                stores = esql.stores(in.readLine().trim(), null, false);
+                break;
+
+             case 4:
+                stores = esql.stores(null, null, true);
+                break;
+
+             case 9: return;
+
+             default: System.out.println("Unrecognized choice!"); return;
+          }
+
+          printRows(stores, "storeid", "address", "city", "state", "isopen", "reviewscore");
+          if (stores.isEmpty()) {
+             System.out.println("No stores were found");
           }
-           System.out.println("\n- - - - - - - - - - - - - - - - -\n");
-           
+          System.out.println("\n- - - - - - - - - - - - - - - - -\n");
+
        } catch(Exception e) {
+          esql.stats().failAction();
           System.err.println(e.getMessage());
        }
     }
 	
-   public static void updateOrderStatus(String authorisedUser, PizzaStore esql) {
+   public static void updateOrderStatus(Session session, PizzaStore esql) {
        try {
-          String getRole = "SELECT role FROM Users WHERE login = '" + authorisedUser + "'";
-          String role = esql.executeQueryAndReturnResult(getRole).get(0).get(0).trim();
- 
-          if (role.equals("customer")) {
+          if (session.isCustomer()) {
              System.out.println("Sorry, you do not have access to this feature.");
              return;
           }
@@ -1045,40 +2210,107 @@ public class PizzaStore {
           System.out.println("\n- - - - - - - - - - - - - - - - -\n");
           System.out.println("UPDATE ORDER STATUS");
           System.out.println("---------------");
+
+          System.out.println("(1) One order");
+          System.out.println("(2) A list of orders");
+          System.out.println("(3) All orders of a store");
+          System.out.println("(4) All orders placed before a date");
+          int mode = readChoice();
+          if (mode >= 2 && mode <= 4) {
+             updateOrderStatuses(mode, esql);
+             esql.wrote(session.login);
+             return;
+          }
           
           System.out.println("Would you like to view the most recent orders first? (0 for no, 1-9 for yes)");
           int choice = readChoice();
           if (choice != 0) {
-             viewRecentOrders(authorisedUser, esql);
+             viewRecentOrders(session, esql);
           }
           
           System.out.print("Please enter the orderID to update: "); //get orderID in order to better help the manager/driver
           int orderID = Integer.parseInt(in.readLine());
  
-          String getStatus = "SELECT orderStatus FROM FoodOrder WHERE orderID = '" + orderID + "'";
-          String status = esql.executeQueryAndReturnResult(getStatus).get(0).get(0).trim();
+          String status = esql.orderStatus(orderID);
+          if (status == null) {
+             System.out.println("Order " + orderID + " was not found.");
+             return;
+          }
  
           String updatedStatus = "complete";
           if(status.equals("complete")) {
              updatedStatus = "incomplete";
           }
-          String updateOrder = "UPDATE FoodOrder SET orderStatus = '" + updatedStatus + "' WHERE orderID = '"
-             + orderID + "'";
           
           System.out.println("Updating order " + orderID + " to " + updatedStatus);
-          esql.executeUpdate(updateOrder);
+          esql.setOrderStatus(orderID, updatedStatus);
+          esql.wrote(session.login);
  
        } catch(Exception e) {
+          esql.stats().failAction();
           System.err.println(e.getMessage());
        }
     }
+
+   /**
+    * Sets the status of a list of orders, of a store's orders or of the
+    * orders placed before a date, with set-based updates.
+    *
+    * @param mode 2 for a list of orderIDs, 3 for a store, 4 for a cutoff date
+    */
+   private static void updateOrderStatuses(int mode, PizzaStore esql) throws IOException, SQLException {
+      List<Integer> orderIDs = new ArrayList<Integer>();
+      Integer storeID = null;
+      Timestamp before = null;
+      String what;
+      if (mode == 2) {
+         System.out.print("Please enter the orderIDs to update, separated by spaces or commas: ");
+         for (String id : in.readLine().trim().split("[\\s,]+"))
+            if (!id.isEmpty())
+               orderIDs.add(Integer.parseInt(id));
+         if (orderIDs.isEmpty()) {
+            System.out.println("No orderIDs were entered.");
+            return;
+         }
+         what = orderIDs.size() + " listed orders";
+      } else {
+         System.out.print(mode == 3 ? "Please enter the store ID: " : "Only orders from store ID (blank for all stores): ");
+         String storeInput = in.readLine().trim();
+         if (!storeInput.isEmpty())
+            storeID = Integer.parseInt(storeInput);
+         if (mode == 3 && storeID == null) {
+            System.out.println("A store ID is required.");
+            return;
+         }
+         what = storeID == null ? "all orders" : "all orders of store " + storeID;
+         if (mode == 4) {
+            System.out.print("Orders placed before (yyyy-mm-dd [hh:mm:ss]): ");
+            String cutoff = in.readLine().trim();
+            before = Timestamp.valueOf(cutoff.indexOf(' ') < 0 ? cutoff + " 00:00:00" : cutoff);
+            what += " placed before " + before;
+         }
+      }
+
+      System.out.print("New status (complete or incomplete): ");
+      String status = in.readLine().trim();
+      if (!status.equals("complete") && !status.equals("incomplete")) {
+         System.out.println("The status must be complete or incomplete.");
+         return;
+      }
+      System.out.print("As a confirmation, you want to mark " + what + " as " + status + " (yes or no)? ");
+      if (!in.readLine().trim().equals("yes")) {
+         System.out.println("No orders were updated.");
+         return;
+      }
+
+      int changed = mode == 2 ? esql.setOrderStatuses(orderIDs, status)
+                              : esql.setOrderStatusWhere(status, storeID, before);
+      System.out.println(changed + (changed == 1 ? " order was" : " orders were") + " updated to " + status);
+   }//end updateOrderStatuses
 	
-   public static void updateMenu(String authorisedUser, PizzaStore esql) {
+   public static void updateMenu(Session session, PizzaStore esql) {
        try {
-          String getRole = "SELECT role FROM Users WHERE login = '" + authorisedUser + "'";
-          String role = esql.executeQueryAndReturnResult(getRole).get(0).get(0).trim();
- 
-          if (!role.equals("manager")) {
+          if (!session.isManager()) {
           System.out.println("Sorry, you do not have access to this feature.");
           return;
           }
@@ -1091,18 +2323,13 @@ public class PizzaStore {
           System.out.println("(3) Edit Item");
           System.out.println("(4) Cancel");
  
-          String menuAction = "";
- 
           switch(readChoice()) {
              case 1:
                 System.out.print("Type in the name of the item you wish to add: ");
                 String newItem = in.readLine();
  
                 //check if menu item already exists in the database
-                String checkItemQuery = "SELECT itemName FROM Items WHERE itemName = '" + newItem + "'";
-                int existingItem = esql.executeQuery(checkItemQuery);
- 
-                if (existingItem > 0) {
+                if (esql.itemExists(newItem)) {
                    System.out.println("Error: An item with the name " + newItem + " already exists.");
                    break; 
                 }
@@ -1114,27 +2341,19 @@ public class PizzaStore {
                 String newCategory = in.readLine();
  
                 System.out.print("Type in the price of " + newItem + ": ");
-                float newPrice = Float.parseFloat(in.readLine());
+                BigDecimal newPrice = new BigDecimal(in.readLine().trim());
  
                 System.out.print("Enter a description for " + newItem + " (press 'Enter' to skip): ");
                 String newDescription = in.readLine().trim();
  
-                if (newDescription.isEmpty()) {
-                   newDescription = "";
-                }
- 
-                menuAction = "INSERT INTO Items VALUES ('" + newItem + "','" + newIng + "','" + newCategory + "', '" +
-                   newPrice + "', '" + newDescription + "')";
- 
-                esql.executeUpdate(menuAction);
+                esql.addItem(newItem, newIng, newCategory, newPrice, newDescription);
  
                 break;
  
              case 2:
                 System.out.println("Enter the name of the item you'd like to delete: ");
                 String itemToDelete = in.readLine();
-                menuAction = "DELETE FROM Items WHERE itemName = '" + itemToDelete + "'";
-                esql.executeUpdate(menuAction);
+                esql.deleteItem(itemToDelete);
                 break;
              case 3:
                 System.out.println("Enter the name of the item you'd like to edit: ");
@@ -1148,20 +2367,17 @@ public class PizzaStore {
                    case 1:
                       System.out.print("Type in the new ingredients list as a comma(,) separated list: ");
                       String newIng1 = in.readLine();
-                      menuAction = "UPDATE Items SET ingredients = '" + newIng1 + "' WHERE itemName = '" + itemName + "'";
-                      esql.executeUpdate(menuAction);
+                      esql.updateItemField(itemName, "ingredients", newIng1);
                       break;
                    case 2:
                       System.out.print("Set the new price for " + itemName + ": ");
-                      float newPrice1 = Float.parseFloat(in.readLine());
-                      menuAction = "UPDATE Items SET price = '" + newPrice1 + "' WHERE itemName = '" + itemName + "'";
-                      esql.executeUpdate(menuAction);
+                      BigDecimal newPrice1 = new BigDecimal(in.readLine().trim());
+                      esql.updateItemField(itemName, "price", newPrice1);
                       break;
                    case 3:
                       System.out.print("Update the description for " + itemName + ": ");
                       String newDesc = in.readLine();
-                      menuAction = "UPDATE Items SET description = '" + newDesc + "' WHERE itemName = '" + itemName + "'";
-                      esql.executeUpdate(menuAction);
+                      esql.updateItemField(itemName, "description", newDesc);
                       break;
                    default: System.out.println("Unrecognized choice!"); break;
                 }
@@ -1172,17 +2388,25 @@ public class PizzaStore {
              default: System.out.println("Unrecognized choice!"); break;
           }
        } catch(Exception e) {
+          esql.stats().failAction();
           System.err.println(e.getMessage());
        }
     }
    
    
-   public static void updateUser(String authorisedUser, PizzaStore esql) {
+   /*
+    * Mirrors a manager's change to a user record into the manager's own
+    * session when they edited themselves.
+    **/
+   static void refreshSession(Session session, String editedLogin, String column, String value) {
+      if (session.login.equals(editedLogin)) {
+         session.apply(column, value);
+      }
+   }//end refreshSession
+
+   public static void updateUser(Session session, PizzaStore esql) {
        try {
-          String getRole = "SELECT role FROM Users WHERE login = '" + authorisedUser + "'";
-          String role = esql.executeQueryAndReturnResult(getRole).get(0).get(0).trim();
- 
-          if (!role.equals("manager")) {
+          if (!session.isManager()) {
              System.out.println("Sorry, you do not have access to this feature.");
              return;
           }
@@ -1201,24 +2425,19 @@ public class PizzaStore {
           System.out.print("Enter the username of the user whose details you wish to edit: ");
           String userName0 = in.readLine();
  
-          String managerAction = "";
- 
           switch(readChoice()) {
           case 1:
              System.out.print("Enter a new username: ");
              String userName1 = in.readLine();
  
              //check if username is already taken
-             String checkUsernameQuery = "SELECT login FROM Users WHERE login = '" + userName1 + "'";
-             int existingUser = esql.executeQuery(checkUsernameQuery);
- 
-             if (existingUser == 1) {
+             if (esql.loginExists(userName1)) {
                 System.out.println("Error: The username " + userName1 + " is already taken.");
                 break;
              }
  
-             managerAction = "UPDATE Users SET login = '" + userName1 + "' WHERE login = '" + userName0 + "'";
-             esql.executeUpdate(managerAction);
+             esql.updateUserField(userName0, "login", userName1);
+             refreshSession(session, userName0, "login", userName1);
              System.out.println("Username updated successfully!");
              break;
  
@@ -1233,8 +2452,8 @@ public class PizzaStore {
                 break;
              }
  
-             managerAction = "UPDATE Users SET password = '" + newPass + "' WHERE login = '" + userName0 + "'";
-             esql.executeUpdate(managerAction);
+             esql.updateUserField(userName0, "password", newPass);
+             refreshSession(session, userName0, "password", newPass);
              System.out.println("Password updated successfully!");
              break;
  
@@ -1246,8 +2465,11 @@ public class PizzaStore {
              System.out.println("(4) Cancel");
              System.out.println("\n\n");
  
-             String getRole1 = "SELECT role FROM Users WHERE login = '" + userName0 + "'";
-             String role1 = esql.executeQueryAndReturnResult(getRole1).get(0).get(0).trim();
+             String role1 = esql.userRole(userName0);
+             if (role1 == null) {
+                System.out.println("Error: The user " + userName0 + " does not exist.");
+                break;
+             }
  
              String roleChange = role1;
  
@@ -1266,8 +2488,8 @@ public class PizzaStore {
                 default: System.out.println("Unrecognized choice!"); break;
              }
  
-             managerAction = "UPDATE users SET role = '" + roleChange + "' WHERE login = '" + userName0 + "'";
-             esql.executeUpdate(managerAction);
+             esql.updateUserField(userName0, "role", roleChange);
+             refreshSession(session, userName0, "role", roleChange);
              if (!roleChange.equals(role1)) {
                 System.out.println("Role successfully updated!");
              }
@@ -1278,15 +2500,13 @@ public class PizzaStore {
              String favoriteItem = in.readLine();
  
              //check if item exists
-             String checkItem = "SELECT itemName FROM items WHERE itemName = '" + favoriteItem + "'";
- 
-             if (esql.executeQueryAndReturnResult(checkItem).get(0).isEmpty()) {
+             if (!esql.itemExists(favoriteItem)) {
                 System.out.println("Error: The item you entered does not currently exist.");
                 break;
              }
  
-             managerAction = "UPDATE Users SET favoriteItems = '" + favoriteItem + "' WHERE login = '" + userName0 + "'";
-             esql.executeUpdate(managerAction);
+             esql.updateUserField(userName0, "favoriteItems", favoriteItem);
+             refreshSession(session, userName0, "favoriteItems", favoriteItem);
              System.out.println("Favorite item updated successfully!");
  
              break;
@@ -1295,8 +2515,8 @@ public class PizzaStore {
              System.out.print("Enter a new phone number: ");
              String newPhoneNumber = in.readLine();
  
-             managerAction = "UPDATE Users SET phoneNum = '" + newPhoneNumber + "' WHERE login = '" + userName0 + "'";
-             esql.executeUpdate(managerAction);
+             esql.updateUserField(userName0, "phoneNum", newPhoneNumber);
+             refreshSession(session, userName0, "phoneNum", newPhoneNumber);
              System.out.println("Phone number updated successfully!");
  
              break;
@@ -1307,10 +2527,10 @@ public class PizzaStore {
           default: System.out.println("Unrecognized choice!"); break;
           }
        } catch(Exception e) {
+          esql.stats().failAction();
           System.err.println(e.getMessage());
        }
    }
 
 
 }//end PizzaStore
-
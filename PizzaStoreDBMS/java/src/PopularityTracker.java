@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class tracks what is selling right now: the most ordered items, the
+ * most ordered items of each store and the stores with the most orders over
+ * a sliding time window, fed by every order this process commits.  The
+ * window is cut into buckets, each holding Space-Saving summaries of a
+ * bounded number of keys, so memory stays constant however many orders,
+ * items and stores there are.  Counts are estimates: a reported count
+ * never undercounts and overcounts by at most its reported error.
+ *
+ * Items per store are kept in a small summary of their own for each store
+ * the bucket's store summary monitors, i.e. its busiest stores, and dropped
+ * when the store is evicted from it.  A store's item counts therefore cover
+ * the orders since it was last admitted among the busiest stores of each
+ * bucket: they may undercount a store outside or newly back among them,
+ * and its reported error only bounds the overcount.
+ *
+ * The window is set with the system properties pizzastore.popular.windowMillis
+ * (default one hour) and pizzastore.popular.buckets (default 12), the keys
+ * kept per summary with pizzastore.popular.capacity (default 256) and the
+ * items kept per store with pizzastore.popular.storeCapacity (default 64).
+ * Orders placed by other processes are not seen.
+ *
+ */
+public class PopularityTracker {
+
+   static final long WINDOW_MILLIS = Long.getLong("pizzastore.popular.windowMillis", 3600000L);
+   static final int BUCKETS = Integer.getInteger("pizzastore.popular.buckets", 12);
+   static final int CAPACITY = Integer.getInteger("pizzastore.popular.capacity", 256);
+   static final int STORE_CAPACITY = Integer.getInteger("pizzastore.popular.storeCapacity", 64);
+
+   /**
+    * The estimated count of one key over the window.
+    */
+   public static final class Count {
+      public final String key;
+      public final long count;
+      public final long error;
+
+      Count(String key, long count, long error) {
+         this.key = key;
+         this.count = count;
+         this.error = error;
+      }//end Count
+   }//end Count
+
+   /**
+    * A Space-Saving summary.  The monitored keys sit in a min-heap by
+    * count, indexed by key; an unmonitored key replaces the least counted
+    * one and takes over its count, which becomes the new key's error.
+    */
+   static final class SpaceSaving {
+      private final String[] _keys;
+      private final long[] _counts;
+      private final long[] _errors;
+      private final HashMap<String, Integer> _slots;
+      private int _size = 0;
+
+      SpaceSaving(int capacity) {
+         this._keys = new String[capacity];
+         this._counts = new long[capacity];
+         this._errors = new long[capacity];
+         this._slots = new HashMap<String, Integer>(capacity * 2);
+      }//end SpaceSaving
+
+      /**
+       * @return the key evicted to make room for this one, or null
+       */
+      String add(String key, long weight) {
+         Integer slot = this._slots.get(key);
+         if (slot != null) {
+            this._counts[slot] += weight;
+            siftDown(slot);
+         } else if (this._size < this._keys.length) {
+            int i = this._size++;
+            set(i, key, weight, 0);
+            siftUp(i);
+         } else {
+            long min = this._counts[0];
+            String evicted = this._keys[0];
+            this._slots.remove(evicted);
+            set(0, key, min + weight, min);
+            siftDown(0);
+            return evicted;
+         }//end if
+         return null;
+      }//end add
+
+      /**
+       * @return the most an unmonitored key may have been counted
+       */
+      long floor() {
+         return this._size < this._keys.length ? 0 : this._counts[0];
+      }//end floor
+
+      private void set(int i, String key, long count, long error) {
+         this._keys[i] = key;
+         this._counts[i] = count;
+         this._errors[i] = error;
+         this._slots.put(key, i);
+      }//end set
+
+      private void swap(int a, int b) {
+         String key = this._keys[a];
+         long count = this._counts[a];
+         long error = this._errors[a];
+         set(a, this._keys[b], this._counts[b], this._errors[b]);
+         set(b, key, count, error);
+      }//end swap
+
+      private void siftUp(int i) {
+         while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (this._counts[parent] <= this._counts[i])
+               break;
+            swap(i, parent);
+            i = parent;
+         }//end while
+      }//end siftUp
+
+      private void siftDown(int i) {
+         while (true) {
+            int child = 2 * i + 1;
+            if (child >= this._size)
+               break;
+            if (child + 1 < this._size && this._counts[child + 1] < this._counts[child])
+               ++child;
+            if (this._counts[i] <= this._counts[child])
+               break;
+            swap(i, child);
+            i = child;
+         }//end while
+      }//end siftDown
+   }//end SpaceSaving
+
+   /**
+    * The summaries of one slice of the window.
+    */
+   private static final class Bucket {
+      long epoch = -1;
+      final SpaceSaving items = new SpaceSaving(CAPACITY);
+      final SpaceSaving stores = new SpaceSaving(CAPACITY);
+      // the items of each store monitored by stores, keyed by its key there
+      final HashMap<String, SpaceSaving> storeItems = new HashMap<String, SpaceSaving>();
+   }//end Bucket
+
+   private interface Summary {
+      // null when the bucket has no such summary
+      SpaceSaving of(Bucket bucket);
+   }
+
+   private final long _bucketMillis = Math.max(1, WINDOW_MILLIS / BUCKETS);
+   private final Bucket[] _buckets = new Bucket[BUCKETS];
+
+   /**
+    * Counts a committed order: each item by quantity, the store once.
+    *
+    * @param storeID the store of the order
+    * @param cart item names and quantities
+    */
+   public synchronized void record(int storeID, Map<String, Integer> cart) {
+      long epoch = System.currentTimeMillis() / this._bucketMillis;
+      int i = (int) (epoch % this._buckets.length);
+      Bucket bucket = this._buckets[i];
+      if (bucket == null || bucket.epoch != epoch) {
+         // the slot held a bucket that has left the window
+         bucket = new Bucket();
+         bucket.epoch = epoch;
+         this._buckets[i] = bucket;
+      }//end if
+      String store = String.valueOf(storeID);
+      String evicted = bucket.stores.add(store, 1);
+      if (evicted != null)
+         bucket.storeItems.remove(evicted);
+      SpaceSaving storeItems = bucket.storeItems.get(store);
+      if (storeItems == null) {
+         storeItems = new SpaceSaving(STORE_CAPACITY);
+         bucket.storeItems.put(store, storeItems);
+      }//end if
+      for (Map.Entry<String, Integer> line : cart.entrySet()) {
+         bucket.items.add(line.getKey(), line.getValue());
+         storeItems.add(line.getKey(), line.getValue());
+      }//end for
+   }//end record
+
+   /**
+    * @param storeID only items ordered from this store, or null for all stores
+    * @param limit the number of items
+    * @return the most ordered items of the window by quantity, highest first
+    */
+   public List<Count> topItems(Integer storeID, int limit) {
+      if (storeID == null)
+         return top(bucket -> bucket.items, limit);
+      String store = String.valueOf(storeID);
+      return top(bucket -> bucket.storeItems.get(store), limit);
+   }//end topItems
+
+   /**
+    * @param limit the number of stores
+    * @return the storeIDs with the most orders in the window, highest first
+    */
+   public List<Count> topStores(int limit) {
+      return top(bucket -> bucket.stores, limit);
+   }//end topStores
+
+   /**
+    * @return the estimated quantity ordered in the window of every monitored item
+    */
+   public Map<String, Long> itemCounts() {
+      Map<String, Long> counts = new HashMap<String, Long>();
+      for (Count count : top(bucket -> bucket.items, Integer.MAX_VALUE))
+         counts.put(count.key, count.count);
+      return counts;
+   }//end itemCounts
+
+   /**
+    * Merges one summary of every bucket in the window.  A key a bucket does
+    * not monitor counts as that bucket's floor, in the count and the error.
+    */
+   private synchronized List<Count> top(Summary summary, int limit) {
+      long now = System.currentTimeMillis() / this._bucketMillis;
+      List<SpaceSaving> live = new ArrayList<SpaceSaving>();
+      for (Bucket bucket : this._buckets) {
+         SpaceSaving counts = bucket == null || bucket.epoch <= now - this._buckets.length ? null : summary.of(bucket);
+         if (counts != null)
+            live.add(counts);
+      }//end for
+
+      HashMap<String, long[]> merged = new HashMap<String, long[]>();
+      for (SpaceSaving counts : live) {
+         for (int i = 0; i < counts._size; ++i)
+            merged.put(counts._keys[i], new long[2]);
+      }//end for
+      for (Map.Entry<String, long[]> entry : merged.entrySet()) {
+         long[] total = entry.getValue();
+         for (SpaceSaving counts : live) {
+            Integer slot = counts._slots.get(entry.getKey());
+            total[0] += slot == null ? counts.floor() : counts._counts[slot];
+            total[1] += slot == null ? counts.floor() : counts._errors[slot];
+         }//end for
+      }//end for
+
+      List<Count> result = new ArrayList<Count>(merged.size());
+      for (Map.Entry<String, long[]> entry : merged.entrySet())
+         result.add(new Count(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+      Collections.sort(result, new Comparator<Count>() {
+         public int compare(Count a, Count b) {
+            int byCount = Long.compare(b.count, a.count);
+            return byCount != 0 ? byCount : a.key.compareTo(b.key);
+         }
+      });
+      return result.size() > limit ? new ArrayList<Count>(result.subList(0, limit)) : result;
+   }//end top
+
+}//end PopularityTracker
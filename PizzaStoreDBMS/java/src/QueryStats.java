@@ -0,0 +1,201 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects per-query-shape and per-user-action statistics:
+ * call, error, row and fetched byte counts plus a latency histogram.  A
+ * query shape is the SQL template, since values are always bound as
+ * parameters.  An action is one console menu choice or HTTP route, and
+ * records the database time spent on its queries, so the time a user
+ * spends typing is not counted.  Every metric is also registered as a JMX
+ * MXBean under PizzaStore:type=Query or PizzaStore:type=Action.
+ *
+ * Recording costs a map lookup, two clock reads and a few uncontended
+ * counter increments per query.
+ *
+ */
+public class QueryStats {
+
+   // shapes beyond this many are counted together, so ad hoc SQL cannot grow the registry without bound.
+   static final int MAX_SHAPES = 500;
+
+   static final String OTHER = "(other)";
+
+   /**
+    * The JMX view of one metric.  Times are in milliseconds.
+    */
+   public interface MetricMXBean {
+      String getName();
+      long getCount();
+      long getErrors();
+      long getRows();
+      long getBytes();
+      double getTotalMillis();
+      double getMeanMillis();
+      double getP50Millis();
+      double getP99Millis();
+      double getP999Millis();
+      double getMaxMillis();
+   }
+
+   /**
+    * The counters of one query shape or action.
+    */
+   public static final class Metric implements MetricMXBean {
+      private final String _name;
+      private final LongAdder _count = new LongAdder();
+      private final LongAdder _errors = new LongAdder();
+      private final LongAdder _rows = new LongAdder();
+      private final LongAdder _bytes = new LongAdder();
+      private final LongAdder _nanos = new LongAdder();
+      private final LatencyHistogram _latency = new LatencyHistogram();
+
+      Metric(String name) {
+         this._name = name;
+      }//end Metric
+
+      void record(long nanos, boolean failed) {
+         this._count.increment();
+         if (failed)
+            this._errors.increment();
+         this._nanos.add(nanos);
+         this._latency.record(nanos / 1000);
+      }//end record
+
+      void addRows(long rows) { this._rows.add(rows); }
+
+      void addBytes(long bytes) { this._bytes.add(bytes); }
+
+      public String getName() { return this._name; }
+      public long getCount() { return this._count.sum(); }
+      public long getErrors() { return this._errors.sum(); }
+      public long getRows() { return this._rows.sum(); }
+      public long getBytes() { return this._bytes.sum(); }
+      public double getTotalMillis() { return this._nanos.sum() / 1e6; }
+
+      public double getMeanMillis() {
+         long count = getCount();
+         return count == 0 ? 0 : getTotalMillis() / count;
+      }//end getMeanMillis
+
+      public double getP50Millis() { return this._latency.percentile(0.50) / 1000.0; }
+      public double getP99Millis() { return this._latency.percentile(0.99) / 1000.0; }
+      public double getP999Millis() { return this._latency.percentile(0.999) / 1000.0; }
+      public double getMaxMillis() { return this._latency.max() / 1000.0; }
+   }//end Metric
+
+   private final ConcurrentHashMap<String, Metric> _queries = new ConcurrentHashMap<String, Metric>();
+   private final ConcurrentHashMap<String, Metric> _actions = new ConcurrentHashMap<String, Metric>();
+
+   // database nanoseconds of the action running on this thread and 1 once it
+   // failed, or null outside one
+   private final ThreadLocal<long[]> _action = new ThreadLocal<long[]>();
+
+   /**
+    * @return the metric of a query shape
+    */
+   Metric query(String sql) {
+      Metric metric = this._queries.get(sql);
+      if (metric != null)
+         return metric;
+      if (this._queries.size() >= MAX_SHAPES)
+         sql = OTHER;
+      return get(this._queries, sql, "Query");
+   }//end query
+
+   /**
+    * @return the metric of a user action
+    */
+   Metric action(String name) {
+      Metric metric = this._actions.get(name);
+      return metric != null ? metric : get(this._actions, name, "Action");
+   }//end action
+
+   private static Metric get(ConcurrentHashMap<String, Metric> metrics, String name, String type) {
+      Metric created = new Metric(name);
+      Metric metric = metrics.putIfAbsent(name, created);
+      if (metric != null)
+         return metric;
+      try{
+         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+         server.registerMBean(created, new ObjectName("PizzaStore:type=" + type + ",name=" + ObjectName.quote(name)));
+      }catch (JMException e){
+         // another PizzaStore in this JVM registered the name first; only
+         // the JMX view is missing.
+      }//end try
+      return created;
+   }//end get
+
+   /**
+    * Records one execution of a query, and adds its time to the action
+    * running on this thread.
+    */
+   void record(Metric query, long nanos, boolean failed) {
+      query.record(nanos, failed);
+      long[] action = this._action.get();
+      if (action != null)
+         action[0] += nanos;
+   }//end record
+
+   /**
+    * Starts timing the database work of an action on this thread.
+    */
+   public void beginAction() {
+      this._action.set(new long[2]);
+   }//end beginAction
+
+   /**
+    * Marks the action running on this thread as failed, for a handler
+    * that reports its error instead of throwing it.
+    */
+   public void failAction() {
+      long[] action = this._action.get();
+      if (action != null)
+         action[1] = 1;
+   }//end failAction
+
+   /**
+    * Records the database time spent since beginAction under the action's name.
+    *
+    * @param name the action
+    * @param failed true when the action ended with an error; an action
+    *        marked with failAction counts as failed either way
+    */
+   public void endAction(String name, boolean failed) {
+      long[] action = this._action.get();
+      this._action.remove();
+      if (action != null)
+         action(name).record(action[0], failed || action[1] != 0);
+   }//end endAction
+
+   /**
+    * @return the query shape metrics, most total time first
+    */
+   public List<Metric> queries() {
+      return sorted(this._queries);
+   }//end queries
+
+   /**
+    * @return the action metrics, most total time first
+    */
+   public List<Metric> actions() {
+      return sorted(this._actions);
+   }//end actions
+
+   private static List<Metric> sorted(ConcurrentHashMap<String, Metric> metrics) {
+      List<Metric> list = new ArrayList<Metric>(metrics.values());
+      Collections.sort(list, new Comparator<Metric>() {
+         public int compare(Metric a, Metric b) { return Double.compare(b.getTotalMillis(), a.getTotalMillis()); }
+      });
+      return list;
+   }//end sorted
+
+}//end QueryStats
@@ -0,0 +1,438 @@
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * This class holds a query result column by column, each column decoded
+ * once into an array of its own type: int and long columns as primitives,
+ * numeric columns as unscaled longs at the column's scale (cents for
+ * prices), timestamps as wall-clock microseconds since 1970-01-01 00:00
+ * read from the column's text, so independent of the JVM's time zone,
+ * floating point as
+ * doubles and everything else as strings.  A numeric column without a
+ * declared scale, such as a sum, takes the largest scale of its values, and
+ * one whose values do not fit a long at that scale is kept as BigDecimals.
+ * Nulls are kept in a bitset per column.  Values are read back by row and column without parsing, and
+ * getString formats any column the way the console prints it.
+ *
+ */
+public class ResultTable {
+
+   static final int STRING = 0;
+   static final int INT = 1;
+   static final int LONG = 2;
+   static final int DECIMAL = 3;
+   static final int TIMESTAMP = 4;
+   static final int DOUBLE = 5;
+   static final int BIG_DECIMAL = 6;
+
+   // a larger reported scale means none was declared: the pg73 driver
+   // reports (typmod - 4) & 0xffff, i.e. 65531, for an unconstrained numeric.
+   static final int MAX_SCALE = 18;
+
+   // the server's text of a timestamp without time zone, e.g. 2024-03-10 02:30:00.5
+   static final DateTimeFormatter TIMESTAMP_TEXT = new DateTimeFormatterBuilder()
+      .append(DateTimeFormatter.ISO_LOCAL_DATE).appendLiteral(' ')
+      .appendPattern("HH:mm:ss").appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+      .toFormatter();
+
+   private final String[] _names;
+   private final int[] _types;
+   private final int[] _scales;
+   private final Object[] _columns;
+   private final BitSet[] _nulls;
+   private int _rows = 0;
+   private int _capacity = 16;
+   private long _bytes = 0;
+
+   private ResultTable(String[] names, int[] types, int[] scales) {
+      this._names = names;
+      this._types = types;
+      this._scales = scales;
+      this._columns = new Object[names.length];
+      this._nulls = new BitSet[names.length];
+      for (int c = 0; c < names.length; ++c) {
+         this._columns[c] = allocate(types[c], this._capacity);
+         this._nulls[c] = new BitSet();
+      }//end for
+   }//end ResultTable
+
+   private static Object allocate(int type, int capacity) {
+      switch (type) {
+         case INT: return new int[capacity];
+         case LONG: case DECIMAL: case TIMESTAMP: return new long[capacity];
+         case DOUBLE: return new double[capacity];
+         case BIG_DECIMAL: return new BigDecimal[capacity];
+         default: return new String[capacity];
+      }//end switch
+   }//end allocate
+
+   static int typeOf(int sqlType) {
+      switch (sqlType) {
+         case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT: return INT;
+         case Types.BIGINT: return LONG;
+         case Types.NUMERIC: case Types.DECIMAL: return DECIMAL;
+         case Types.TIMESTAMP: return TIMESTAMP;
+         case Types.DOUBLE: case Types.FLOAT: case Types.REAL: return DOUBLE;
+         default: return STRING;
+      }//end switch
+   }//end typeOf
+
+   /**
+    * Reads the remaining rows of a result set.
+    *
+    * @param rs the result set, positioned before its first row
+    * @return the decoded rows
+    * @throws java.sql.SQLException when reading fails
+    */
+   static ResultTable read(ResultSet rs) throws SQLException {
+      ResultSetMetaData rsmd = rs.getMetaData();
+      int n = rsmd.getColumnCount();
+      String[] names = new String[n];
+      int[] types = new int[n];
+      int[] scales = new int[n];
+      for (int c = 0; c < n; ++c) {
+         names[c] = rsmd.getColumnName(c + 1);
+         types[c] = typeOf(rsmd.getColumnType(c + 1));
+         if (types[c] == DECIMAL) {
+            int scale = rsmd.getScale(c + 1);
+            scales[c] = scale >= 0 && scale <= MAX_SCALE ? scale : 0;
+         }//end if
+      }//end for
+
+      ResultTable table = new ResultTable(names, types, scales);
+      while (rs.next()) {
+         table.grow();
+         int row = table._rows++;
+         for (int c = 0; c < n; ++c)
+            table._bytes += table.decode(rs, row, c);
+      }//end while
+      return table;
+   }//end read
+
+   /**
+    * @return the length of the values read as text, as the other query
+    *         methods count the bytes fetched; numbers are counted by their
+    *         digits without formatting them
+    */
+   public long bytes() {
+      return this._bytes;
+   }//end bytes
+
+   // characters of the decimal text of a value
+   private static int digits(long value) {
+      int n = value < 0 ? 2 : 1;
+      for (long v = Math.abs(value / 10); v != 0; v /= 10)
+         ++n;
+      return n;
+   }//end digits
+
+   // characters of the plain text of a numeric value
+   private static int digits(BigDecimal value) {
+      return Math.max(value.precision(), value.scale() + 1) + (value.scale() > 0 ? 1 : 0) + (value.signum() < 0 ? 1 : 0);
+   }//end digits
+
+   private void grow() {
+      if (this._rows < this._capacity)
+         return;
+      this._capacity *= 2;
+      for (int c = 0; c < this._columns.length; ++c) {
+         Object column = this._columns[c];
+         if (column instanceof int[])
+            this._columns[c] = Arrays.copyOf((int[]) column, this._capacity);
+         else if (column instanceof long[])
+            this._columns[c] = Arrays.copyOf((long[]) column, this._capacity);
+         else if (column instanceof double[])
+            this._columns[c] = Arrays.copyOf((double[]) column, this._capacity);
+         else
+            this._columns[c] = Arrays.copyOf((Object[]) column, this._capacity);
+      }//end for
+   }//end grow
+
+   /**
+    * @return the length of the value as text
+    */
+   private long decode(ResultSet rs, int row, int c) throws SQLException {
+      int i = c + 1;
+      long bytes = 0;
+      switch (this._types[c]) {
+         case INT: {
+            int value = rs.getInt(i);
+            ((int[]) this._columns[c])[row] = value;
+            bytes = digits(value);
+            break;
+         }
+         case LONG: {
+            long value = rs.getLong(i);
+            ((long[]) this._columns[c])[row] = value;
+            bytes = digits(value);
+            break;
+         }
+         case DOUBLE: {
+            double value = rs.getDouble(i);
+            ((double[]) this._columns[c])[row] = value;
+            bytes = Double.toString(value).length();
+            break;
+         }
+         case DECIMAL: {
+            BigDecimal value = rs.getBigDecimal(i);
+            if (value == null)
+               break;
+            bytes = digits(value);
+            try{
+               // a value finer than the column's scale rescales the column
+               if (value.scale() > this._scales[c])
+                  rescale(c, value.scale());
+               ((long[]) this._columns[c])[row] = value.setScale(this._scales[c]).unscaledValue().longValueExact();
+            }catch (ArithmeticException e){
+               toBigDecimal(c);
+               ((BigDecimal[]) this._columns[c])[row] = value;
+            }//end try
+            break;
+         }
+         case BIG_DECIMAL: {
+            BigDecimal value = rs.getBigDecimal(i);
+            ((BigDecimal[]) this._columns[c])[row] = value;
+            return value == null ? 0 : digits(value);
+         }
+         case TIMESTAMP: {
+            String text = rs.getString(i);
+            if (text == null)
+               break;
+            bytes = text.length();
+            LocalDateTime value;
+            try{
+               value = LocalDateTime.parse(text, TIMESTAMP_TEXT);
+            }catch (DateTimeParseException e){
+               // e.g. a timestamp with time zone; read in the JVM's zone
+               value = rs.getTimestamp(i).toLocalDateTime();
+            }//end try
+            ((long[]) this._columns[c])[row] = value.toEpochSecond(ZoneOffset.UTC) * 1000000L + value.getNano() / 1000;
+            break;
+         }
+         default: {
+            String value = rs.getString(i);
+            ((String[]) this._columns[c])[row] = value;
+            return value == null ? 0 : value.length();
+         }
+      }//end switch
+      if (rs.wasNull()) {
+         this._nulls[c].set(row);
+         return 0;
+      }//end if
+      return bytes;
+   }//end decode
+
+   /**
+    * Moves a numeric column to a finer scale.
+    *
+    * @throws ArithmeticException when the scale or a value does not fit,
+    *         leaving the column unchanged
+    */
+   private void rescale(int c, int scale) {
+      if (scale > MAX_SCALE)
+         throw new ArithmeticException("Scale " + scale);
+      long[] column = (long[]) this._columns[c];
+      long[] rescaled = new long[column.length];
+      long factor = BigDecimal.TEN.pow(scale - this._scales[c]).longValueExact();
+      for (int row = 0; row < this._rows; ++row)
+         rescaled[row] = Math.multiplyExact(column[row], factor);
+      this._columns[c] = rescaled;
+      this._scales[c] = scale;
+   }//end rescale
+
+   /**
+    * Keeps a numeric column as BigDecimals from now on.
+    */
+   private void toBigDecimal(int c) {
+      long[] column = (long[]) this._columns[c];
+      BigDecimal[] values = new BigDecimal[column.length];
+      for (int row = 0; row < this._rows; ++row)
+         values[row] = this._nulls[c].get(row) ? null : BigDecimal.valueOf(column[row], this._scales[c]);
+      this._columns[c] = values;
+      this._types[c] = BIG_DECIMAL;
+   }//end toBigDecimal
+
+   public int rowCount() { return this._rows; }
+
+   public int columnCount() { return this._names.length; }
+
+   public String columnName(int column) { return this._names[column]; }
+
+   /**
+    * @return the position of the column, ignoring case
+    * @throws IllegalArgumentException when there is no such column
+    */
+   public int column(String name) {
+      for (int c = 0; c < this._names.length; ++c)
+         if (this._names[c].equalsIgnoreCase(name))
+            return c;
+      throw new IllegalArgumentException("No column " + name);
+   }//end column
+
+   public boolean isNull(int row, int column) {
+      check(row);
+      return this._columns[column] instanceof Object[]
+         ? ((Object[]) this._columns[column])[row] == null
+         : this._nulls[column].get(row);
+   }//end isNull
+
+   public int getInt(int row, int column) {
+      check(row);
+      switch (this._types[column]) {
+         case INT: return ((int[]) this._columns[column])[row];
+         case LONG: return Math.toIntExact(((long[]) this._columns[column])[row]);
+         default: throw wrongType(column, "int");
+      }//end switch
+   }//end getInt
+
+   public long getLong(int row, int column) {
+      check(row);
+      switch (this._types[column]) {
+         case INT: return ((int[]) this._columns[column])[row];
+         case LONG: return ((long[]) this._columns[column])[row];
+         default: throw wrongType(column, "long");
+      }//end switch
+   }//end getLong
+
+   /**
+    * @return the unscaled value of a numeric column, e.g. cents for a
+    *         price, at the column's scale
+    * @throws IllegalStateException when the column is kept as BigDecimals
+    */
+   public long getUnscaled(int row, int column) {
+      check(row);
+      if (this._types[column] != DECIMAL)
+         throw wrongType(column, "numeric");
+      return ((long[]) this._columns[column])[row];
+   }//end getUnscaled
+
+   public int scale(int column) {
+      return this._scales[column];
+   }//end scale
+
+   public BigDecimal getDecimal(int row, int column) {
+      if (isNull(row, column))
+         return null;
+      switch (this._types[column]) {
+         case DECIMAL: return BigDecimal.valueOf(((long[]) this._columns[column])[row], this._scales[column]);
+         case BIG_DECIMAL: return ((BigDecimal[]) this._columns[column])[row];
+         case INT: case LONG: return BigDecimal.valueOf(getLong(row, column));
+         default: throw wrongType(column, "numeric");
+      }//end switch
+   }//end getDecimal
+
+   public double getDouble(int row, int column) {
+      check(row);
+      switch (this._types[column]) {
+         case DOUBLE: return ((double[]) this._columns[column])[row];
+         case DECIMAL: return getUnscaled(row, column) / Math.pow(10, this._scales[column]);
+         case BIG_DECIMAL: return isNull(row, column) ? 0 : getDecimal(row, column).doubleValue();
+         case INT: case LONG: return getLong(row, column);
+         default: throw wrongType(column, "double");
+      }//end switch
+   }//end getDouble
+
+   /**
+    * @return the wall-clock microseconds since 1970-01-01 00:00 of a
+    *         timestamp column
+    */
+   public long getMicros(int row, int column) {
+      check(row);
+      if (this._types[column] != TIMESTAMP)
+         throw wrongType(column, "timestamp");
+      return ((long[]) this._columns[column])[row];
+   }//end getMicros
+
+   public LocalDateTime getLocalDateTime(int row, int column) {
+      if (isNull(row, column))
+         return null;
+      long micros = getMicros(row, column);
+      return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1000000L),
+                                         (int) Math.floorMod(micros, 1000000L) * 1000, ZoneOffset.UTC);
+   }//end getLocalDateTime
+
+   /**
+    * @return the value as a Timestamp in the JVM's time zone, which shifts
+    *         wall-clock times that fall in a daylight saving gap
+    */
+   public Timestamp getTimestamp(int row, int column) {
+      LocalDateTime value = getLocalDateTime(row, column);
+      return value == null ? null : Timestamp.valueOf(value);
+   }//end getTimestamp
+
+   /**
+    * @return the value formatted as the driver's getString would, or null
+    */
+   public String getString(int row, int column) {
+      if (isNull(row, column))
+         return null;
+      switch (this._types[column]) {
+         case INT: case LONG: return Long.toString(getLong(row, column));
+         case DECIMAL: case BIG_DECIMAL: return getDecimal(row, column).toPlainString();
+         case DOUBLE: {
+            double value = getDouble(row, column);
+            return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+         }
+         case TIMESTAMP: return TIMESTAMP_TEXT.format(getLocalDateTime(row, column));
+         default: return ((String[]) this._columns[column])[row];
+      }//end switch
+   }//end getString
+
+   /**
+    * @return a copy of the rows from (inclusive) to (exclusive)
+    */
+   public ResultTable slice(int from, int to) {
+      if (from < 0 || to > this._rows || from > to)
+         throw new IndexOutOfBoundsException("Rows " + from + " to " + to + " of " + this._rows);
+      ResultTable slice = new ResultTable(this._names, this._types.clone(), this._scales.clone());
+      slice._rows = to - from;
+      slice._capacity = Math.max(slice._rows, 1);
+      for (int c = 0; c < this._columns.length; ++c) {
+         Object column = this._columns[c];
+         if (column instanceof int[])
+            slice._columns[c] = Arrays.copyOfRange((int[]) column, from, from + slice._capacity);
+         else if (column instanceof long[])
+            slice._columns[c] = Arrays.copyOfRange((long[]) column, from, from + slice._capacity);
+         else if (column instanceof double[])
+            slice._columns[c] = Arrays.copyOfRange((double[]) column, from, from + slice._capacity);
+         else
+            slice._columns[c] = Arrays.copyOfRange((Object[]) column, from, from + slice._capacity);
+         slice._nulls[c] = this._nulls[c].get(from, to);
+      }//end for
+      return slice;
+   }//end slice
+
+   /**
+    * @return one row as strings, for code that still prints List rows
+    */
+   public List<String> row(int row) {
+      List<String> values = new ArrayList<String>(this._names.length);
+      for (int c = 0; c < this._names.length; ++c)
+         values.add(getString(row, c));
+      return values;
+   }//end row
+
+   private void check(int row) {
+      if (row < 0 || row >= this._rows)
+         throw new IndexOutOfBoundsException("Row " + row + " of " + this._rows);
+   }//end check
+
+   private IllegalStateException wrongType(int column, String wanted) {
+      return new IllegalStateException("Column " + this._names[column] + " cannot be read as " + wanted);
+   }//end wrongType
+
+}//end ResultTable
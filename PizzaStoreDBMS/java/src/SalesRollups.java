@@ -0,0 +1,171 @@
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class maintains the sales rollup tables and answers the manager
+ * sales reports from them.  StoreSalesHourly and StoreSalesDaily hold the
+ * order count and revenue of each store per hour and per day, in total and
+ * for completed orders; ItemSalesDaily holds the quantity of each item sold
+ * per store per day.  Rows are upserted in the transaction that places an
+ * order and corrected by the statement that changes order statuses, so a
+ * report reads one row per store and period of its range instead of
+ * scanning FoodOrder and ItemsInOrder.
+ *
+ */
+public class SalesRollups {
+
+   // adds one order to its store's hour and day.
+   static final String RECORD_ORDER =
+      "WITH o (storeID, ts, price) AS (VALUES (?::integer, ?::timestamp, ?::numeric)), " +
+      "hourly AS (INSERT INTO StoreSalesHourly SELECT storeID, date_trunc('hour', ts), 1, price, 0, 0 FROM o " +
+      "ON CONFLICT (storeID, hour) DO UPDATE SET orders = StoreSalesHourly.orders + 1, " +
+      "revenue = StoreSalesHourly.revenue + EXCLUDED.revenue) " +
+      "INSERT INTO StoreSalesDaily SELECT storeID, date_trunc('day', ts), 1, price, 0, 0 FROM o " +
+      "ON CONFLICT (storeID, day) DO UPDATE SET orders = StoreSalesDaily.orders + 1, " +
+      "revenue = StoreSalesDaily.revenue + EXCLUDED.revenue";
+
+   // adds the order lines to their store's day, one VALUES row per line.
+   static final String RECORD_ITEMS = "INSERT INTO ItemSalesDaily";
+   static final String RECORD_ITEM = "(?, date_trunc('day', ?::timestamp), ?, ?)";
+   static final String RECORD_ITEMS_CONFLICT =
+      " ON CONFLICT (storeID, day, itemName) DO UPDATE SET quantity = ItemSalesDaily.quantity + EXCLUDED.quantity";
+
+   // the rollups recomputed from the order tables, see sql/src/rebuild_rollups.sql.
+   static final String[] REBUILD = {
+      "TRUNCATE StoreSalesHourly, StoreSalesDaily, ItemSalesDaily",
+      "INSERT INTO StoreSalesHourly SELECT storeID, date_trunc('hour', orderTimestamp), count(*), sum(totalPrice), " +
+      "count(*) FILTER (WHERE orderStatus = 'complete'), " +
+      "COALESCE(sum(totalPrice) FILTER (WHERE orderStatus = 'complete'), 0) FROM FoodOrder GROUP BY 1, 2",
+      "INSERT INTO StoreSalesDaily SELECT storeID, date_trunc('day', hour), sum(orders), sum(revenue), " +
+      "sum(completedOrders), sum(completedRevenue) FROM StoreSalesHourly GROUP BY 1, 2",
+      "INSERT INTO ItemSalesDaily SELECT F.storeID, date_trunc('day', F.orderTimestamp), I.itemName, sum(I.quantity) " +
+      "FROM FoodOrder F JOIN ItemsInOrder I ON I.orderID = F.orderID GROUP BY 1, 2, 3"
+   };
+
+   private final PizzaStore _esql;
+
+   public SalesRollups(PizzaStore esql) {
+      this._esql = esql;
+   }//end SalesRollups
+
+   /**
+    * Adds a new order to the rollups; to be called in the transaction that
+    * inserts it.  Item rows are upserted by one statement in name order, so
+    * concurrent orders lock them in the same order.
+    *
+    * @param storeID the store of the order
+    * @param timestamp the order time
+    * @param totalPrice the order total
+    * @param cart item names and quantities
+    */
+   void record(int storeID, Timestamp timestamp, BigDecimal totalPrice, Map<String, Integer> cart) throws SQLException {
+      this._esql.executeUpdate(RECORD_ORDER, storeID, timestamp, totalPrice);
+      List<Object[]> lines = new ArrayList<Object[]>(cart.size());
+      for (Map.Entry<String, Integer> line : new TreeMap<String, Integer>(cart).entrySet())
+         lines.add(new Object[] { storeID, timestamp, line.getKey(), line.getValue() });
+      this._esql.executeValues(RECORD_ITEMS, RECORD_ITEM, RECORD_ITEMS_CONFLICT, lines);
+   }//end record
+
+   /**
+    * Builds one statement that sets the status of the orders matching the
+    * filter and moves their count and revenue in or out of the completed
+    * columns of the rollups.  The orders are locked first, so the status
+    * they are moved from is the committed one.  The statement returns the
+    * number of orders it updated.
+    *
+    * @param filter the WHERE condition on FoodOrder, with '?' markers
+    * @param changedOnly skip orders already in the new status
+    * @return the statement; its parameters are the filter's, then the
+    *         new status twice if changedOnly, else once
+    */
+   static String setStatus(String filter, boolean changedOnly) {
+      return "WITH locked AS (SELECT orderID, orderStatus AS was FROM FoodOrder WHERE " + filter +
+             (changedOnly ? " AND orderStatus IS DISTINCT FROM ?" : "") + " ORDER BY orderID FOR UPDATE), " +
+             "changed AS (UPDATE FoodOrder F SET orderStatus = ? FROM locked L WHERE F.orderID = L.orderID " +
+             "RETURNING F.storeID, F.orderTimestamp, F.totalPrice, " +
+             "CASE WHEN F.orderStatus = 'complete' THEN 1 ELSE 0 END - " +
+             "CASE WHEN L.was = 'complete' THEN 1 ELSE 0 END AS delta), " +
+             "moved AS (SELECT storeID, date_trunc('hour', orderTimestamp) AS hour, sum(delta) AS orders, " +
+             "sum(delta * totalPrice) AS revenue FROM changed WHERE delta <> 0 GROUP BY 1, 2), " +
+             "hourly AS (UPDATE StoreSalesHourly S SET completedOrders = S.completedOrders + M.orders, " +
+             "completedRevenue = S.completedRevenue + M.revenue FROM moved M " +
+             "WHERE S.storeID = M.storeID AND S.hour = M.hour), " +
+             "daily AS (UPDATE StoreSalesDaily S SET completedOrders = S.completedOrders + M.orders, " +
+             "completedRevenue = S.completedRevenue + M.revenue FROM (SELECT storeID, date_trunc('day', hour) AS day, " +
+             "sum(orders) AS orders, sum(revenue) AS revenue FROM moved GROUP BY 1, 2) M " +
+             "WHERE S.storeID = M.storeID AND S.day = M.day) " +
+             "SELECT count(*) FROM changed";
+   }//end setStatus
+
+   /**
+    * Recomputes every rollup from the order tables in one transaction,
+    * e.g. after a bulk load.
+    */
+   public void rebuild() throws SQLException {
+      this._esql.inTransaction(() -> {
+         for (String statement : REBUILD)
+            this._esql.executeUpdate(statement);
+         return null;
+      });
+   }//end rebuild
+
+   /**
+    * Lists the sales of each period of a range as storeID, period, orders,
+    * revenue, completedOrders and completedRevenue rows.
+    *
+    * @param from the start of the range, inclusive
+    * @param to the end of the range, exclusive
+    * @param storeID only this store, or null for every store
+    * @param hourly per hour instead of per day
+    * @return the rows ordered by period and storeID
+    */
+   public ResultTable sales(Timestamp from, Timestamp to, Integer storeID, boolean hourly) throws SQLException {
+      String table = hourly ? "StoreSalesHourly" : "StoreSalesDaily";
+      String period = hourly ? "hour" : "day";
+      String sql = "SELECT storeID, " + period + ", orders, revenue, completedOrders, completedRevenue FROM " + table +
+                   " WHERE " + period + " >= ? AND " + period + " < ?";
+      if (storeID == null)
+         return this._esql.executeQueryAndReturnTable(sql + " ORDER BY " + period + ", storeID", from, to);
+      return this._esql.executeQueryAndReturnTable(sql + " AND storeID = ? ORDER BY " + period, from, to, storeID);
+   }//end sales
+
+   /**
+    * Lists the stores with the most revenue in a range of days as storeID,
+    * city, state, orders, revenue and completedRevenue rows.
+    *
+    * @param from the first day, inclusive
+    * @param to the day after the last one, exclusive
+    * @param limit the number of stores
+    * @return the stores, highest revenue first
+    */
+   public ResultTable topStores(Timestamp from, Timestamp to, int limit) throws SQLException {
+      return this._esql.executeQueryAndReturnTable(
+         "SELECT S.storeID, T.city, T.state, S.orders, S.revenue, S.completedRevenue FROM " +
+         "(SELECT storeID, sum(orders) AS orders, sum(revenue) AS revenue, sum(completedRevenue) AS completedRevenue " +
+         "FROM StoreSalesDaily WHERE day >= ? AND day < ? GROUP BY storeID ORDER BY revenue DESC, storeID LIMIT ?) S " +
+         "JOIN Store T ON T.storeID = S.storeID ORDER BY S.revenue DESC, S.storeID", from, to, limit);
+   }//end topStores
+
+   /**
+    * Lists the items sold most in a range of days as itemName and quantity rows.
+    *
+    * @param from the first day, inclusive
+    * @param to the day after the last one, exclusive
+    * @param storeID only this store, or null for every store
+    * @param limit the number of items
+    * @return the items, highest quantity first
+    */
+   public ResultTable topItems(Timestamp from, Timestamp to, Integer storeID, int limit) throws SQLException {
+      String sql = "SELECT itemName, sum(quantity) AS quantity FROM ItemSalesDaily WHERE day >= ? AND day < ?";
+      String order = " GROUP BY itemName ORDER BY quantity DESC, itemName LIMIT ?";
+      if (storeID == null)
+         return this._esql.executeQueryAndReturnTable(sql + order, from, to, limit);
+      return this._esql.executeQueryAndReturnTable(sql + " AND storeID = ?" + order, from, to, storeID, limit);
+   }//end topItems
+
+}//end SalesRollups
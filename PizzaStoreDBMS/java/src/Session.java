@@ -0,0 +1,82 @@
+import java.util.List;
+
+/**
+ * This class holds the authenticated user of one console or HTTP session:
+ * the login, role and profile fields read by the same query that checked
+ * the password.  Handlers consult it instead of looking the role up on
+ * every action, and it is only updated when the profile or the user record
+ * itself is changed.
+ *
+ */
+public class Session {
+
+   // columns loaded by PizzaStore.authenticate, in this order.
+   static final String COLUMNS = "login, password, role, favoriteItems, phoneNum";
+
+   volatile String login;
+   volatile String password;
+   volatile String role;
+   volatile String favoriteItems;
+   volatile String phoneNum;
+
+   // CacheVersion of Users when the row was read, -1 if unknown.
+   volatile long version;
+
+   /**
+    * Creates a session from a Users row
+    *
+    * @param row the login, password, role, favoriteItems and phoneNum values
+    * @param version the Users version polled before the row was read
+    */
+   Session(List<String> row, long version) {
+      reload(row, version);
+   }//end Session
+
+   /**
+    * Replaces the fields with a freshly read Users row.
+    *
+    * @param row the login, password, role, favoriteItems and phoneNum values
+    * @param version the Users version polled before the row was read
+    */
+   void reload(List<String> row, long version) {
+      this.login = row.get(0);
+      this.password = row.get(1);
+      this.role = row.get(2).trim();
+      this.favoriteItems = row.get(3);
+      this.phoneNum = row.get(4);
+      this.version = version;
+   }//end reload
+
+   public String login() { return this.login; }
+
+   public String role() { return this.role; }
+
+   public boolean isCustomer() {
+      return this.role.equals("customer");
+   }//end isCustomer
+
+   public boolean isManager() {
+      return this.role.equals("manager");
+   }//end isManager
+
+   /**
+    * Mirrors a change written to this user's Users row.
+    *
+    * @param column one of PizzaStore.USER_COLUMNS
+    * @param value the value that was stored
+    */
+   void apply(String column, String value) {
+      column = PizzaStore.checkColumn(column, PizzaStore.USER_COLUMNS);
+      if (column.equals("login"))
+         this.login = value;
+      else if (column.equals("password"))
+         this.password = value;
+      else if (column.equals("role"))
+         this.role = value.trim();
+      else if (column.equals("favoriteItems"))
+         this.favoriteItems = value;
+      else if (column.equals("phoneNum"))
+         this.phoneNum = value;
+   }//end apply
+
+}//end Session
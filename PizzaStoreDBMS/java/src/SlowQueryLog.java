@@ -0,0 +1,221 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * This class writes statements that ran longer than a threshold to a
+ * rotating local log file: the SQL text, the bind values with secrets
+ * redacted, the elapsed time and, for queries, the EXPLAIN (ANALYZE,
+ * BUFFERS) output of running them again.  Slow statements are handed to a
+ * background thread through a bounded queue; when it is full entries are
+ * dropped and counted, so the calling thread never waits on the log.
+ *
+ * The threshold is PizzaStore.SLOW_QUERY_MILLIS; the file is set with the
+ * system properties pizzastore.slowQuery.file (default slow_queries.log),
+ * pizzastore.slowQuery.maxBytes (default 10 MB per file) and
+ * pizzastore.slowQuery.files (default 5 rotated files kept).  Plans are
+ * not captured for statements with secret values, since the values can
+ * appear in the plan text.  The values of statements that write Users or
+ * mention a password are never written, in case a caller forgot to mark
+ * the password secret.
+ *
+ */
+public class SlowQueryLog {
+
+   static final String FILE = System.getProperty("pizzastore.slowQuery.file", "slow_queries.log");
+   static final long MAX_BYTES = Long.getLong("pizzastore.slowQuery.maxBytes", 10L * 1024 * 1024);
+   static final int FILES = Integer.getInteger("pizzastore.slowQuery.files", 5);
+
+   static final int QUEUE_SIZE = 256;
+
+   /**
+    * One slow statement waiting to be written.  The raw values are kept
+    * only in memory, to run EXPLAIN with.
+    */
+   static final class Entry {
+      final long time = System.currentTimeMillis();
+      final String sql;
+      final Object[] params;
+      final long nanos;
+      final boolean failed;
+      final ConnectionPool pool;
+
+      Entry(String sql, Object[] params, long nanos, boolean failed, ConnectionPool pool) {
+         this.sql = sql;
+         this.params = params;
+         this.nanos = nanos;
+         this.failed = failed;
+         this.pool = pool;
+      }//end Entry
+   }//end Entry
+
+   private static final Entry STOP = new Entry("", new Object[0], 0, false, null);
+
+   private final PizzaStore _esql;
+   private final long _thresholdNanos;
+   private final File _file;
+   private final BlockingQueue<Entry> _queue = new ArrayBlockingQueue<Entry>(QUEUE_SIZE);
+   private final AtomicLong _dropped = new AtomicLong();
+   private Thread _writer = null;
+
+   public SlowQueryLog(PizzaStore esql, long thresholdMillis, File file) {
+      this._esql = esql;
+      this._thresholdNanos = thresholdMillis < 0 ? Long.MAX_VALUE : thresholdMillis * 1000000L;
+      this._file = file;
+   }//end SlowQueryLog
+
+   /**
+    * Queues the statement when it ran longer than the threshold.  EXPLAIN
+    * statements are never logged, so the plan capture cannot feed itself.
+    *
+    * @param sql the SQL template
+    * @param params the bind values
+    * @param nanos the elapsed time
+    * @param failed true when the statement failed
+    * @param pool the pool of the connection it ran on, to explain it on
+    */
+   void offer(String sql, Object[] params, long nanos, boolean failed, ConnectionPool pool) {
+      if (nanos < this._thresholdNanos || sql.startsWith("EXPLAIN "))
+         return;
+      synchronized (this) {
+         if (this._writer == null) {
+            this._writer = new Thread(this::drain, "slow-query-log");
+            this._writer.setDaemon(true);
+            this._writer.start();
+         }//end if
+      }
+      if (!this._queue.offer(new Entry(sql, params.clone(), nanos, failed, pool)))
+         this._dropped.incrementAndGet();
+   }//end offer
+
+   /**
+    * @return the number of slow statements dropped because the queue was full
+    */
+   public long dropped() {
+      return this._dropped.get();
+   }//end dropped
+
+   /**
+    * Writes the queued entries and stops the background thread.
+    */
+   public void close() {
+      Thread writer;
+      synchronized (this) {
+         writer = this._writer;
+      }
+      if (writer == null)
+         return;
+      try{
+         this._queue.offer(STOP, 1, TimeUnit.SECONDS);
+         writer.join(5000);
+      }catch (InterruptedException e){
+         Thread.currentThread().interrupt();
+      }//end try
+   }//end close
+
+   private void drain() {
+      try{
+         while (true) {
+            Entry entry = this._queue.take();
+            if (entry == STOP)
+               return;
+            try{
+               write(format(entry));
+            }catch (IOException e){
+               System.err.println("Slow query log: " + e.getMessage());
+            }//end try
+         }//end while
+      }catch (InterruptedException e){
+         // stopped
+      }//end try
+   }//end drain
+
+   /**
+    * @return the values as they may be written, with secrets redacted
+    */
+   static String describe(Object[] params) {
+      StringBuilder out = new StringBuilder("[");
+      for (int i = 0; i < params.length; ++i) {
+         if (i > 0)
+            out.append(", ");
+         Object value = params[i];
+         if (value == null || value instanceof PizzaStore.Secret || value instanceof Number)
+            out.append(value);
+         else
+            out.append('\'').append(value).append('\'');
+      }//end for
+      return out.append(']').toString();
+   }//end describe
+
+   // words of statements that change data, upper case.
+   private static final Pattern WRITES = Pattern.compile("\\b(INSERT|UPDATE|DELETE|TRUNCATE|NEXTVAL|SETVAL)\\b");
+
+   // statements whose values may hold a password, upper case.
+   private static final Pattern PASSWORDS = Pattern.compile(
+      "\\b(INSERT\\s+INTO|UPDATE|DELETE\\s+FROM|COPY)\\s+USERS\\b|PASSWORD");
+
+   private String format(Entry entry) {
+      StringBuilder out = new StringBuilder();
+      out.append("# ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(entry.time)))
+         .append(String.format("  %.1f ms", entry.nanos / 1e6))
+         .append(entry.failed ? "  FAILED" : "").append('\n');
+      out.append(entry.sql).append('\n');
+      String verb = entry.sql.trim().toUpperCase();
+      boolean secret = PASSWORDS.matcher(verb).find();
+      out.append("params: ").append(secret ? "(withheld, the statement may hold a password)" : describe(entry.params))
+         .append('\n');
+
+      // ANALYZE runs the statement again, so plans are only captured for
+      // queries, not for WITH statements that write or for sequence calls,
+      // and never with secret values, which can appear in the plan
+      for (Object value : entry.params)
+         secret |= value instanceof PizzaStore.Secret;
+      boolean query = (verb.startsWith("SELECT") || verb.startsWith("WITH")) && !WRITES.matcher(verb).find();
+      if (!entry.failed && !secret && query) {
+         try{
+            for (String line : this._esql.explain(entry.pool, entry.sql, entry.params))
+               out.append("  ").append(line).append('\n');
+         }catch (SQLException e){
+            out.append("  (no plan: ").append(e.getMessage()).append(")\n");
+         }//end try
+      }//end if
+      long dropped = this._dropped.getAndSet(0);
+      if (dropped > 0)
+         out.append("(").append(dropped).append(" slow statements were dropped before this one)\n");
+      return out.append('\n').toString();
+   }//end format
+
+   /**
+    * Appends to the log file, first rotating it to .1, .2 ... when full.
+    */
+   private void write(String text) throws IOException {
+      if (this._file.length() > 0 && this._file.length() + text.length() > MAX_BYTES)
+         rotate();
+      Writer out = new OutputStreamWriter(new FileOutputStream(this._file, true), StandardCharsets.UTF_8);
+      try{
+         out.write(text);
+      }finally{
+         out.close();
+      }//end try
+   }//end write
+
+   private void rotate() {
+      String path = this._file.getPath();
+      new File(path + "." + FILES).delete();
+      for (int i = FILES - 1; i >= 1; --i)
+         new File(path + "." + i).renameTo(new File(path + "." + (i + 1)));
+      this._file.renameTo(new File(path + ".1"));
+   }//end rotate
+
+}//end SlowQueryLog
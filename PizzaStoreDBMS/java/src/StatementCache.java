@@ -0,0 +1,94 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the prepared statements of one physical connection,
+ * keyed by their SQL template.  The least recently used statement is
+ * closed once the cache grows past its capacity.  With the bundled pg73
+ * driver a prepared statement is filled in on the client and sent as a
+ * plain query, so the cache saves creating statement objects, not server
+ * side parsing or planning.
+ *
+ */
+public class StatementCache {
+
+   // reference to the connection the statements belong to.
+   private final Connection _connection;
+
+   // access ordered map, the eldest entry is the least recently used one.
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   /**
+    * Creates a new statement cache for a connection
+    *
+    * @param connection the physical connection to prepare statements on
+    * @param capacity the maximum number of statements kept open
+    */
+   public StatementCache(Connection connection, final int capacity) {
+      this._connection = connection;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(capacity, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > capacity) {
+               closeQuietly(eldest.getValue());
+               return true;
+            }
+            return false;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for the SQL template, preparing it on a
+    * cache miss.
+    *
+    * @param sql the SQL template with '?' parameter markers
+    * @return the prepared statement, its parameters already cleared
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt == null) {
+         stmt = this._connection.prepareStatement(sql);
+         this._statements.put(sql, stmt);
+      } else {
+         stmt.clearParameters();
+      }//end if
+      return stmt;
+   }//end prepare
+
+   /**
+    * Drops and closes the statement of a SQL template, used after an error
+    * left it in an unknown state.
+    *
+    * @param sql the SQL template to evict
+    */
+   public synchronized void evict(String sql) {
+      closeQuietly(this._statements.remove(sql));
+   }//end evict
+
+   /**
+    * Closes every cached statement.
+    */
+   public synchronized void close() {
+      Iterator<PreparedStatement> it = this._statements.values().iterator();
+      while (it.hasNext()) {
+         closeQuietly(it.next());
+         it.remove();
+      }//end while
+   }//end close
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try{
+         if (stmt != null) {
+            stmt.close();
+         }//end if
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
@@ -0,0 +1,166 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps the Store table in memory for store browsing and order
+ * placement.  Stores are held in storeID order with hash indexes from city
+ * and from state to store positions, a bitset of the stores that are open,
+ * and a storeID lookup, so choosing a store never touches the database.
+ * City and state lookups ignore case and surrounding blanks.
+ *
+ */
+public class StoreDirectory {
+
+   /**
+    * One loaded copy of the Store table.  Arrays are indexed by position,
+    * positions are in storeID order.
+    */
+   static final class Snapshot {
+      final int[] ids;
+      final List<List<String>> rows;
+      final HashMap<String, int[]> byCity;
+      final HashMap<String, int[]> byState;
+      final HashMap<Integer, Integer> byId;
+      final BitSet open;
+
+      Snapshot(ResultTable table) {
+         int n = table.rowCount();
+         this.rows = new ArrayList<List<String>>(n);
+         this.ids = new int[n];
+         this.byId = new HashMap<Integer, Integer>(n * 2);
+         this.open = new BitSet(n);
+         Map<String, List<Integer>> cities = new HashMap<String, List<Integer>>();
+         Map<String, List<Integer>> states = new HashMap<String, List<Integer>>();
+         for (int i = 0; i < n; ++i) {
+            List<String> row = table.row(i);
+            this.rows.add(row);
+            this.ids[i] = table.getInt(i, 0);
+            this.byId.put(this.ids[i], i);
+            if (row.get(4) != null && row.get(4).trim().equalsIgnoreCase("yes"))
+               this.open.set(i);
+            add(cities, key(row.get(2)), i);
+            add(states, key(row.get(3)), i);
+         }//end for
+         this.byCity = toArrays(cities);
+         this.byState = toArrays(states);
+      }//end Snapshot
+
+      private static void add(Map<String, List<Integer>> index, String key, int position) {
+         List<Integer> positions = index.get(key);
+         if (positions == null) {
+            positions = new ArrayList<Integer>();
+            index.put(key, positions);
+         }//end if
+         positions.add(position);
+      }//end add
+
+      private static HashMap<String, int[]> toArrays(Map<String, List<Integer>> index) {
+         HashMap<String, int[]> result = new HashMap<String, int[]>(index.size() * 2);
+         for (Map.Entry<String, List<Integer>> entry : index.entrySet()) {
+            int[] positions = new int[entry.getValue().size()];
+            for (int i = 0; i < positions.length; ++i)
+               positions[i] = entry.getValue().get(i);
+            result.put(entry.getKey(), positions);
+         }//end for
+         return result;
+      }//end toArrays
+   }//end Snapshot
+
+   static String key(String value) {
+      return value == null ? "" : value.trim().toLowerCase();
+   }//end key
+
+   private static final int[] NONE = new int[0];
+
+   private final PizzaStore _esql;
+   private volatile Snapshot _snapshot = null;
+
+   public StoreDirectory(PizzaStore esql) {
+      this._esql = esql;
+   }//end StoreDirectory
+
+   /**
+    * @return the current snapshot, loading the stores if needed
+    * @throws java.sql.SQLException when the stores cannot be loaded
+    */
+   Snapshot snapshot() throws SQLException {
+      Snapshot snapshot = this._snapshot;
+      if (snapshot != null)
+         return snapshot;
+      synchronized (this) {
+         // from the primary, like the menu
+         if (this._snapshot == null)
+            this._snapshot = new Snapshot(this._esql.onPrimary(() -> this._esql.executeQueryAndReturnTable(
+               "SELECT storeID, address, city, state, isOpen, reviewScore FROM Store ORDER BY storeID")));
+         return this._snapshot;
+      }
+   }//end snapshot
+
+   /**
+    * Drops the loaded stores so the next caller reloads them.
+    */
+   public synchronized void invalidate() {
+      this._snapshot = null;
+   }//end invalidate
+
+   /**
+    * Lists stores as storeID, address, city, state, isOpen and reviewScore rows.
+    *
+    * @param city only stores in this city, or null for all
+    * @param state only stores in this state, or null for all
+    * @param openOnly only stores that are open
+    * @return the matching stores ordered by storeID
+    */
+   public List<List<String>> stores(String city, String state, boolean openOnly) throws SQLException {
+      Snapshot stores = snapshot();
+      int[] positions = null;
+      BitSet stateFilter = null;
+      if (city != null) {
+         positions = orNone(stores.byCity.get(key(city)));
+         if (state != null) {
+            stateFilter = new BitSet(stores.ids.length);
+            for (int i : orNone(stores.byState.get(key(state))))
+               stateFilter.set(i);
+         }//end if
+      } else if (state != null) {
+         positions = orNone(stores.byState.get(key(state)));
+      }//end if
+
+      List<List<String>> result = new ArrayList<List<String>>();
+      int n = positions == null ? stores.ids.length : positions.length;
+      for (int k = 0; k < n; ++k) {
+         int i = positions == null ? k : positions[k];
+         if (openOnly && !stores.open.get(i))
+            continue;
+         if (stateFilter != null && !stateFilter.get(i))
+            continue;
+         result.add(stores.rows.get(i));
+      }//end for
+      return result;
+   }//end stores
+
+   private static int[] orNone(int[] positions) {
+      return positions == null ? NONE : positions;
+   }//end orNone
+
+   /**
+    * @return true when a store with this ID exists
+    */
+   public boolean exists(int storeID) throws SQLException {
+      return snapshot().byId.containsKey(storeID);
+   }//end exists
+
+   /**
+    * @return true when the store exists and is open
+    */
+   public boolean isOpen(int storeID) throws SQLException {
+      Snapshot stores = snapshot();
+      Integer i = stores.byId.get(storeID);
+      return i != null && stores.open.get(i);
+   }//end isOpen
+
+}//end StoreDirectory
@@ -0,0 +1,208 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class prints rows as an aligned text table through one large
+ * buffered writer instead of a console write per cell.  Column widths come
+ * from the header and a bounded lookahead window of the first rows, so rows
+ * can be streamed without holding the whole result; later values that do
+ * not fit are truncated.  With a pager, output stops after every page of
+ * rows until the user asks for the next one.
+ *
+ */
+public class TableRenderer {
+
+   static final int MAX_WIDTH = Integer.getInteger("pizzastore.render.maxWidth", 40);
+   static final int LOOKAHEAD = Integer.getInteger("pizzastore.render.lookahead", 100);
+   static final int PAGE_ROWS = Integer.getInteger("pizzastore.render.pageRows", 50);
+
+   private static final String SEPARATOR = "  ";
+
+   private final Writer _out;
+   private final BufferedReader _pager;
+   private final int _pageRows;
+   private final int _maxWidth;
+   private final int _lookahead;
+
+   private String[] _header = new String[0];
+   private int[] _widths = null;
+   private final List<String[]> _window = new ArrayList<String[]>();
+   private int _onPage = 0;
+   private long _rows = 0;
+   private boolean _stopped = false;
+
+   /**
+    * @param out where the table goes; it is flushed, never closed
+    * @param pager the console to wait on between pages, or null to print everything
+    * @param pageRows the rows per page
+    * @param maxWidth the widest a column may be
+    * @param lookahead the number of rows read before the widths are fixed
+    */
+   public TableRenderer(Writer out, BufferedReader pager, int pageRows, int maxWidth, int lookahead) {
+      this._out = out;
+      this._pager = pageRows > 0 ? pager : null;
+      this._pageRows = pageRows;
+      this._maxWidth = Math.max(maxWidth, 4);
+      this._lookahead = Math.max(lookahead, 1);
+   }//end TableRenderer
+
+   /**
+    * @param paged true to stop after every page and wait on the console
+    * @return a renderer writing to standard out with the configured limits
+    */
+   public static TableRenderer console(boolean paged) {
+      return new TableRenderer(new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16),
+                               paged ? PizzaStore.in : null, PAGE_ROWS, MAX_WIDTH, LOOKAHEAD);
+   }//end console
+
+   /**
+    * Prints materialized rows under the column names, one page at a time.
+    */
+   public static void print(List<List<String>> rows, String... columns) throws IOException {
+      TableRenderer table = console(true);
+      table.header(columns);
+      for (List<String> row : rows)
+         if (!table.row(row))
+            break;
+      table.finish();
+   }//end print
+
+   /**
+    * Prints a typed result, one page at a time.
+    */
+   public static void print(ResultTable result) throws IOException {
+      TableRenderer table = console(true);
+      String[] columns = new String[result.columnCount()];
+      for (int c = 0; c < columns.length; ++c)
+         columns[c] = result.columnName(c);
+      table.header(columns);
+      String[] values = new String[columns.length];
+      for (int r = 0; r < result.rowCount(); ++r) {
+         for (int c = 0; c < columns.length; ++c)
+            values[c] = result.getString(r, c);
+         if (!table.row(values))
+            break;
+      }//end for
+      table.finish();
+   }//end print
+
+   public void header(String... columns) {
+      this._header = columns.clone();
+   }//end header
+
+   public boolean row(List<String> values) throws IOException {
+      return row(values.toArray(new String[values.size()]));
+   }//end row
+
+   /**
+    * Adds a row.
+    *
+    * @return false once the user stopped paging; further rows are ignored
+    */
+   public boolean row(String... values) throws IOException {
+      if (this._stopped)
+         return false;
+      if (this._widths == null) {
+         this._window.add(values.clone());
+         if (this._window.size() >= this._lookahead)
+            flushWindow();
+         return !this._stopped;
+      }//end if
+      emit(values);
+      return !this._stopped;
+   }//end row
+
+   /**
+    * Prints what is still buffered and flushes the writer.
+    *
+    * @return the number of rows printed
+    */
+   public long finish() throws IOException {
+      if (this._widths == null)
+         flushWindow();
+      this._out.flush();
+      return this._rows;
+   }//end finish
+
+   private void flushWindow() throws IOException {
+      int columns = this._header.length;
+      for (String[] row : this._window)
+         columns = Math.max(columns, row.length);
+      this._widths = new int[columns];
+      measure(this._header);
+      for (String[] row : this._window)
+         measure(row);
+      if (this._window.isEmpty())
+         return;
+      writeHeader();
+      for (String[] row : this._window) {
+         emit(row);
+         if (this._stopped)
+            break;
+      }//end for
+      this._window.clear();
+   }//end flushWindow
+
+   private void measure(String[] values) {
+      for (int c = 0; c < values.length; ++c) {
+         int length = values[c] == null ? 4 : values[c].trim().length();
+         this._widths[c] = Math.min(Math.max(this._widths[c], length), this._maxWidth);
+      }//end for
+   }//end measure
+
+   private void writeHeader() throws IOException {
+      if (this._header.length == 0)
+         return;
+      writeCells(this._header);
+      StringBuilder rule = new StringBuilder();
+      for (int c = 0; c < this._widths.length; ++c) {
+         if (c > 0)
+            rule.append(SEPARATOR);
+         for (int i = 0; i < this._widths[c]; ++i)
+            rule.append('-');
+      }//end for
+      this._out.write(rule.append('\n').toString());
+   }//end writeHeader
+
+   private void emit(String[] values) throws IOException {
+      if (this._pager != null && this._onPage == this._pageRows) {
+         this._out.write("-- " + this._rows + " rows shown: Enter for more, q to stop -- ");
+         this._out.flush();
+         String answer = this._pager.readLine();
+         if (answer == null || answer.trim().equalsIgnoreCase("q")) {
+            this._stopped = true;
+            return;
+         }//end if
+         this._onPage = 0;
+         writeHeader();
+      }//end if
+      writeCells(values);
+      ++this._onPage;
+      ++this._rows;
+   }//end emit
+
+   private void writeCells(String[] values) throws IOException {
+      StringBuilder line = new StringBuilder();
+      for (int c = 0; c < this._widths.length; ++c) {
+         String value = c < values.length ? values[c] : "";
+         value = value == null ? "null" : value.trim();
+         int width = this._widths[c];
+         if (value.length() > width)
+            value = width < 3 ? value.substring(0, width) : value.substring(0, width - 3) + "...";
+         if (c > 0)
+            line.append(SEPARATOR);
+         line.append(value);
+         // no trailing blanks after the last column
+         if (c < this._widths.length - 1)
+            for (int i = value.length(); i < width; ++i)
+               line.append(' ');
+      }//end for
+      this._out.write(line.append('\n').toString());
+   }//end writeCells
+
+}//end TableRenderer
@@ -0,0 +1,16 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+#start a local streaming standby of the $PGPORT server for read routing, then run
+#the program with -Dpizzastore.replica.port=$REPLICA_PORT (see compile.sh)
+REPLICA_PORT=${REPLICA_PORT:-$((PGPORT + 1))}
+REPLICA_DATA=${REPLICA_DATA:-${TMPDIR:-/tmp}/$USER"_replica"}
+
+if [ ! -d "$REPLICA_DATA" ]; then
+   #-R writes standby.signal and primary_conninfo, so the copy follows the primary
+   pg_basebackup -h localhost -p $PGPORT -U $USER -D "$REPLICA_DATA" -R -X stream || exit 1
+fi
+pg_ctl -D "$REPLICA_DATA" -o "-p $REPLICA_PORT -c hot_standby=on" -l "$REPLICA_DATA/replica.log" start
+
+#replay position, empty on the primary
+cs166_psql -p $REPLICA_PORT $USER"_project_phase_3_DB" -c "SELECT pg_is_in_recovery(), pg_last_wal_replay_lsn()"
@@ -0,0 +1,15 @@
+#!/bin/bash
+# Runs EXPLAIN ANALYZE for every query of the Java client and reports the
+# scans each plan uses.  The full plans are kept in $TMPDIR/explain_queries.out.
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+OUT=${TMPDIR:-/tmp}/explain_queries.out
+
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/explain_queries.sql > $OUT 2>&1
+
+awk '
+   /^== / { query = substr($0, 4); print ""; print query; next }
+   /Seq Scan on/ { seq++; sub(/^[ ->]*/, ""); sub(/  \(.*/, ""); print "   SEQUENTIAL: " $0; next }
+   /Index Only Scan|Index Scan|Bitmap Index Scan/ { sub(/^[ ->]*/, ""); sub(/  \(.*/, ""); print "   " $0; next }
+   /Execution Time:/ { print "   " $0 }
+   END { print ""; print (seq ? seq " sequential scan(s) found" : "no sequential scans") }
+' $OUT
@@ -0,0 +1,32 @@
+-- Indexes for the access paths of the Java client.  Lookups by primary key
+-- (Users.login for LogIn and role checks, FoodOrder.orderID for order
+-- status, ItemsInOrder(orderID, itemName) for viewOrderInfo) are already
+-- served by the primary key indexes.  Items and Store are read whole into
+-- MenuCache and StoreDirectory, so menu and city/state filters need none.
+-- Run explain_queries.sh to check the plans of every query below.
+
+DROP INDEX IF EXISTS FoodOrder_login_time_idx;
+DROP INDEX IF EXISTS FoodOrder_time_idx;
+DROP INDEX IF EXISTS FoodOrder_store_time_idx;
+DROP INDEX IF EXISTS ItemsInOrder_itemName_idx;
+
+-- a customer's order history and recent orders, newest first; the included
+-- columns make the order header pages index-only scans.
+CREATE INDEX FoodOrder_login_time_idx
+   ON FoodOrder (login, orderTimestamp DESC, orderID DESC)
+   INCLUDE (storeID, totalPrice, orderStatus);
+
+-- covering index for the order headers of the whole system, paged by
+-- keyset on (orderTimestamp, orderID) for drivers and managers.
+CREATE INDEX FoodOrder_time_idx
+   ON FoodOrder (orderTimestamp DESC, orderID DESC)
+   INCLUDE (storeID, totalPrice, orderStatus);
+
+-- order history filtered to one store; also serves the storeID foreign key
+-- when a store is deleted.
+CREATE INDEX FoodOrder_store_time_idx
+   ON FoodOrder (storeID, orderTimestamp DESC, orderID DESC);
+
+-- the itemName foreign key, so deleting a menu item does not scan every
+-- order line.
+CREATE INDEX ItemsInOrder_itemName_idx ON ItemsInOrder (itemName);
@@ -3,6 +3,10 @@ DROP TABLE IF EXISTS Items CASCADE;
 DROP TABLE IF EXISTS FoodOrder CASCADE;
 DROP TABLE IF EXISTS Store CASCADE;
 DROP TABLE IF EXISTS ItemsInOrder CASCADE;
+DROP TABLE IF EXISTS CacheVersion CASCADE;
+DROP TABLE IF EXISTS StoreSalesHourly CASCADE;
+DROP TABLE IF EXISTS StoreSalesDaily CASCADE;
+DROP TABLE IF EXISTS ItemSalesDaily CASCADE;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -42,6 +46,11 @@ CREATE TABLE FoodOrder ( orderID integer NOT NULL,
                            ON DELETE CASCADE
 );
 
+-- orderIDs are handed out in blocks: each nextval reserves INCREMENT BY ids
+-- for one client (see OrderIdAllocator.BLOCK_SIZE, which must match).
+CREATE SEQUENCE FoodOrder_orderID_seq INCREMENT BY 50 OWNED BY FoodOrder.orderID;
+ALTER TABLE FoodOrder ALTER COLUMN orderID SET DEFAULT nextval('FoodOrder_orderID_seq');
+
 
 
 CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
@@ -53,3 +62,67 @@ CREATE TABLE ItemsInOrder ( orderID integer NOT NULL,
                            ON DELETE CASCADE
 );
 
+
+-- one version counter per cached table, bumped by the triggers below in the
+-- transaction of every statement that changes the table.  Each PizzaStore
+-- process polls it (see CacheVersions) and drops its copy of a table whose
+-- version moved.  Inserting a user cannot change a cached session, so Users
+-- only counts updates and deletes; Logins counts new and renamed logins,
+-- for the login Bloom filter (see LoginDirectory).
+CREATE TABLE CacheVersion ( tableName varchar(30) NOT NULL,
+                            version bigint NOT NULL,
+                            PRIMARY KEY(tableName)
+);
+
+INSERT INTO CacheVersion VALUES ('Items', 0), ('Store', 0), ('Users', 0), ('Logins', 0);
+
+CREATE OR REPLACE FUNCTION bump_cache_version() RETURNS trigger AS $$
+BEGIN
+   UPDATE CacheVersion SET version = version + 1 WHERE tableName = TG_ARGV[0];
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER Items_cache_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Items
+   FOR EACH STATEMENT EXECUTE PROCEDURE bump_cache_version('Items');
+CREATE TRIGGER Store_cache_version AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Store
+   FOR EACH STATEMENT EXECUTE PROCEDURE bump_cache_version('Store');
+CREATE TRIGGER Users_cache_version AFTER UPDATE OR DELETE OR TRUNCATE ON Users
+   FOR EACH STATEMENT EXECUTE PROCEDURE bump_cache_version('Users');
+CREATE TRIGGER Logins_cache_version AFTER INSERT OR UPDATE OF login OR TRUNCATE ON Users
+   FOR EACH STATEMENT EXECUTE PROCEDURE bump_cache_version('Logins');
+
+
+-- sales rollups for the manager reports, kept up to date by the order and
+-- order status statements (see SalesRollups) and recomputed after a load by
+-- rebuild_rollups.sql.  completedOrders and completedRevenue only count
+-- orders whose status is complete.
+CREATE TABLE StoreSalesHourly ( storeID integer NOT NULL,
+                                hour timestamp NOT NULL,
+                                orders integer NOT NULL,
+                                revenue decimal(12,2) NOT NULL,
+                                completedOrders integer NOT NULL,
+                                completedRevenue decimal(12,2) NOT NULL,
+                                PRIMARY KEY(storeID, hour)
+);
+
+CREATE TABLE StoreSalesDaily ( storeID integer NOT NULL,
+                               day timestamp NOT NULL,
+                               orders integer NOT NULL,
+                               revenue decimal(12,2) NOT NULL,
+                               completedOrders integer NOT NULL,
+                               completedRevenue decimal(12,2) NOT NULL,
+                               PRIMARY KEY(storeID, day)
+);
+
+CREATE TABLE ItemSalesDaily ( storeID integer NOT NULL,
+                              day timestamp NOT NULL,
+                              itemName varchar(50) NOT NULL,
+                              quantity integer NOT NULL,
+                              PRIMARY KEY(storeID, day, itemName)
+);
+
+-- the reports read ranges of days or hours across all stores
+CREATE INDEX StoreSalesHourly_hour_idx ON StoreSalesHourly (hour);
+CREATE INDEX StoreSalesDaily_day_idx ON StoreSalesDaily (day);
+CREATE INDEX ItemSalesDaily_day_idx ON ItemSalesDaily (day);
@@ -0,0 +1,177 @@
+-- EXPLAIN ANALYZE of each query the Java client issues, with sample
+-- parameter values taken from the loaded data.  Every query is preceded by
+-- an "== name" line so explain_queries.sh can report the scans per query.
+-- Statements that write run inside a transaction that is rolled back, and
+-- are written out as PizzaStore and SalesRollups build them; keep them in
+-- sync when those change.
+
+SELECT login AS sample_login, storeID AS sample_store,
+       orderID AS sample_order, orderTimestamp AS sample_time
+  FROM FoodOrder ORDER BY orderTimestamp DESC, orderID DESC
+  OFFSET (SELECT count(*) / 2 FROM FoodOrder) LIMIT 1 \gset
+SELECT itemName AS sample_item FROM ItemsInOrder LIMIT 1 \gset
+SELECT password AS sample_password FROM Users WHERE login = :'sample_login' \gset
+SELECT date_trunc('day', :'sample_time'::timestamp) AS sample_day,
+       date_trunc('day', :'sample_time'::timestamp) + interval '7 days' AS sample_week_end \gset
+
+\echo '== authenticate (LogIn)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT login, password, role, favoriteItems, phoneNum,
+  CASE WHEN password = :'sample_password' THEN 1 ELSE 0 END FROM Users WHERE login = :'sample_login';
+
+\echo '== revalidate (every action after another process changed Users)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT login, password, role, favoriteItems, phoneNum
+  FROM Users WHERE login = :'sample_login';
+
+\echo '== loginExists (CreateUser, updateUser)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT EXISTS(SELECT 1 FROM Users U WHERE U.login = :'sample_login');
+
+\echo '== login directory (Bloom filter rebuild)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT login FROM Users;
+
+\echo '== cache versions (poller)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT tableName, version FROM CacheVersion;
+
+\echo '== userRole'
+EXPLAIN (ANALYZE, BUFFERS) SELECT role FROM Users WHERE login = :'sample_login';
+
+\echo '== orders (viewRecentOrders, customer)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus FROM FoodOrder
+  WHERE login = :'sample_login' ORDER BY orderTimeStamp DESC, orderID DESC LIMIT 5;
+
+\echo '== ordersPage first page (viewAllOrders, customer)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus FROM FoodOrder
+  WHERE TRUE AND login = :'sample_login' ORDER BY orderTimeStamp DESC, orderID DESC LIMIT 11;
+
+\echo '== ordersPage first page (viewAllOrders, staff)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus FROM FoodOrder
+  WHERE TRUE ORDER BY orderTimeStamp DESC, orderID DESC LIMIT 11;
+
+\echo '== ordersPage next page (viewAllOrders, staff)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus FROM FoodOrder
+  WHERE TRUE AND (orderTimeStamp, orderID) < (:'sample_time'::timestamp, :sample_order)
+  ORDER BY orderTimeStamp DESC, orderID DESC LIMIT 11;
+
+\echo '== ordersPage previous page (viewAllOrders, staff)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus FROM FoodOrder
+  WHERE TRUE AND (orderTimeStamp, orderID) > (:'sample_time'::timestamp, :sample_order)
+  ORDER BY orderTimeStamp ASC, orderID ASC LIMIT 11;
+
+\echo '== ordersPage by store (viewAllOrders, staff)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderID, storeID, totalPrice, orderTimeStamp, orderStatus FROM FoodOrder
+  WHERE TRUE AND storeID = :sample_store ORDER BY orderTimeStamp DESC, orderID DESC LIMIT 11;
+
+\echo '== orderInfo (viewOrderInfo)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderTimeStamp, totalPrice, orderStatus, itemName, quantity FROM FoodOrder
+  NATURAL JOIN ItemsInOrder WHERE orderID = :sample_order AND login = :'sample_login';
+
+\echo '== orderStatus (updateOrderStatus)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT orderStatus FROM FoodOrder WHERE orderID = :sample_order;
+
+BEGIN;
+
+\echo '== submitOrder order row (placeOrder)'
+EXPLAIN (ANALYZE, BUFFERS) INSERT INTO FoodOrder VALUES
+  ((SELECT max(orderID) + 1 FROM FoodOrder), :'sample_login', :sample_store, 10.00, :'sample_time', 'incomplete');
+
+\echo '== submitOrder order lines (placeOrder)'
+EXPLAIN (ANALYZE, BUFFERS) INSERT INTO ItemsInOrder VALUES
+  ((SELECT max(orderID) FROM FoodOrder), :'sample_item', 2);
+
+\echo '== SalesRollups.record order (placeOrder)'
+EXPLAIN (ANALYZE, BUFFERS)
+WITH o (storeID, ts, price) AS (VALUES (:sample_store::integer, :'sample_time'::timestamp, 10.00::numeric)),
+hourly AS (INSERT INTO StoreSalesHourly SELECT storeID, date_trunc('hour', ts), 1, price, 0, 0 FROM o
+  ON CONFLICT (storeID, hour) DO UPDATE SET orders = StoreSalesHourly.orders + 1,
+  revenue = StoreSalesHourly.revenue + EXCLUDED.revenue)
+INSERT INTO StoreSalesDaily SELECT storeID, date_trunc('day', ts), 1, price, 0, 0 FROM o
+  ON CONFLICT (storeID, day) DO UPDATE SET orders = StoreSalesDaily.orders + 1,
+  revenue = StoreSalesDaily.revenue + EXCLUDED.revenue;
+
+\echo '== SalesRollups.record items (placeOrder)'
+EXPLAIN (ANALYZE, BUFFERS) INSERT INTO ItemSalesDaily VALUES
+  (:sample_store, date_trunc('day', :'sample_time'::timestamp), :'sample_item', 2)
+  ON CONFLICT (storeID, day, itemName) DO UPDATE SET quantity = ItemSalesDaily.quantity + EXCLUDED.quantity;
+
+\echo '== setOrderStatus (updateOrderStatus, one order)'
+EXPLAIN (ANALYZE, BUFFERS)
+WITH locked AS (SELECT orderID, orderStatus AS was FROM FoodOrder WHERE orderID = :sample_order
+  ORDER BY orderID FOR UPDATE),
+changed AS (UPDATE FoodOrder F SET orderStatus = 'complete' FROM locked L WHERE F.orderID = L.orderID
+  RETURNING F.storeID, F.orderTimestamp, F.totalPrice,
+  CASE WHEN F.orderStatus = 'complete' THEN 1 ELSE 0 END - CASE WHEN L.was = 'complete' THEN 1 ELSE 0 END AS delta),
+moved AS (SELECT storeID, date_trunc('hour', orderTimestamp) AS hour, sum(delta) AS orders,
+  sum(delta * totalPrice) AS revenue FROM changed WHERE delta <> 0 GROUP BY 1, 2),
+hourly AS (UPDATE StoreSalesHourly S SET completedOrders = S.completedOrders + M.orders,
+  completedRevenue = S.completedRevenue + M.revenue FROM moved M WHERE S.storeID = M.storeID AND S.hour = M.hour),
+daily AS (UPDATE StoreSalesDaily S SET completedOrders = S.completedOrders + M.orders,
+  completedRevenue = S.completedRevenue + M.revenue FROM (SELECT storeID, date_trunc('day', hour) AS day,
+  sum(orders) AS orders, sum(revenue) AS revenue FROM moved GROUP BY 1, 2) M
+  WHERE S.storeID = M.storeID AND S.day = M.day)
+SELECT count(*) FROM changed;
+
+\echo '== setOrderStatuses (updateOrderStatus, a list of orders)'
+EXPLAIN (ANALYZE, BUFFERS)
+WITH locked AS (SELECT orderID, orderStatus AS was FROM FoodOrder
+  WHERE orderID IN (:sample_order, :sample_order + 1, :sample_order + 2, :sample_order + 3)
+  AND orderStatus IS DISTINCT FROM 'complete' ORDER BY orderID FOR UPDATE),
+changed AS (UPDATE FoodOrder F SET orderStatus = 'complete' FROM locked L WHERE F.orderID = L.orderID
+  RETURNING F.storeID, F.orderTimestamp, F.totalPrice,
+  CASE WHEN F.orderStatus = 'complete' THEN 1 ELSE 0 END - CASE WHEN L.was = 'complete' THEN 1 ELSE 0 END AS delta),
+moved AS (SELECT storeID, date_trunc('hour', orderTimestamp) AS hour, sum(delta) AS orders,
+  sum(delta * totalPrice) AS revenue FROM changed WHERE delta <> 0 GROUP BY 1, 2),
+hourly AS (UPDATE StoreSalesHourly S SET completedOrders = S.completedOrders + M.orders,
+  completedRevenue = S.completedRevenue + M.revenue FROM moved M WHERE S.storeID = M.storeID AND S.hour = M.hour),
+daily AS (UPDATE StoreSalesDaily S SET completedOrders = S.completedOrders + M.orders,
+  completedRevenue = S.completedRevenue + M.revenue FROM (SELECT storeID, date_trunc('day', hour) AS day,
+  sum(orders) AS orders, sum(revenue) AS revenue FROM moved GROUP BY 1, 2) M
+  WHERE S.storeID = M.storeID AND S.day = M.day)
+SELECT count(*) FROM changed;
+
+\echo '== setOrderStatusWhere (updateOrderStatus, a store before a date)'
+EXPLAIN (ANALYZE, BUFFERS)
+WITH locked AS (SELECT orderID, orderStatus AS was FROM FoodOrder
+  WHERE TRUE AND storeID = :sample_store AND orderTimeStamp < :'sample_time'
+  AND orderStatus IS DISTINCT FROM 'complete' ORDER BY orderID FOR UPDATE),
+changed AS (UPDATE FoodOrder F SET orderStatus = 'complete' FROM locked L WHERE F.orderID = L.orderID
+  RETURNING F.storeID, F.orderTimestamp, F.totalPrice,
+  CASE WHEN F.orderStatus = 'complete' THEN 1 ELSE 0 END - CASE WHEN L.was = 'complete' THEN 1 ELSE 0 END AS delta),
+moved AS (SELECT storeID, date_trunc('hour', orderTimestamp) AS hour, sum(delta) AS orders,
+  sum(delta * totalPrice) AS revenue FROM changed WHERE delta <> 0 GROUP BY 1, 2),
+hourly AS (UPDATE StoreSalesHourly S SET completedOrders = S.completedOrders + M.orders,
+  completedRevenue = S.completedRevenue + M.revenue FROM moved M WHERE S.storeID = M.storeID AND S.hour = M.hour),
+daily AS (UPDATE StoreSalesDaily S SET completedOrders = S.completedOrders + M.orders,
+  completedRevenue = S.completedRevenue + M.revenue FROM (SELECT storeID, date_trunc('day', hour) AS day,
+  sum(orders) AS orders, sum(revenue) AS revenue FROM moved GROUP BY 1, 2) M
+  WHERE S.storeID = M.storeID AND S.day = M.day)
+SELECT count(*) FROM changed;
+
+ROLLBACK;
+
+\echo '== sales by day (viewSales)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT storeID, day, orders, revenue, completedOrders, completedRevenue
+  FROM StoreSalesDaily WHERE day >= :'sample_day' AND day < :'sample_week_end' ORDER BY day, storeID;
+
+\echo '== sales by hour of a store (viewSales)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT storeID, hour, orders, revenue, completedOrders, completedRevenue
+  FROM StoreSalesHourly WHERE hour >= :'sample_day' AND hour < :'sample_week_end' AND storeID = :sample_store
+  ORDER BY hour;
+
+\echo '== top stores (viewSales)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT S.storeID, T.city, T.state, S.orders, S.revenue, S.completedRevenue FROM
+  (SELECT storeID, sum(orders) AS orders, sum(revenue) AS revenue, sum(completedRevenue) AS completedRevenue
+   FROM StoreSalesDaily WHERE day >= :'sample_day' AND day < :'sample_week_end'
+   GROUP BY storeID ORDER BY revenue DESC, storeID LIMIT 10) S
+  JOIN Store T ON T.storeID = S.storeID ORDER BY S.revenue DESC, S.storeID;
+
+\echo '== top items (viewSales)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT itemName, sum(quantity) AS quantity FROM ItemSalesDaily
+  WHERE day >= :'sample_day' AND day < :'sample_week_end'
+  GROUP BY itemName ORDER BY quantity DESC, itemName LIMIT 10;
+
+\echo '== top items of a store (viewSales)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT itemName, sum(quantity) AS quantity FROM ItemSalesDaily
+  WHERE day >= :'sample_day' AND day < :'sample_week_end' AND storeID = :sample_store
+  GROUP BY itemName ORDER BY quantity DESC, itemName LIMIT 10;
+
+\echo '== deleteItem cascade (updateMenu)'
+EXPLAIN (ANALYZE, BUFFERS) SELECT 1 FROM ItemsInOrder WHERE itemName = :'sample_item';
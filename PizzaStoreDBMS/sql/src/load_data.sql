@@ -1,4 +1,5 @@
-/* Replace the location to where you saved the data files*/
+/* Replace the location to where you saved the data files, or load any data
+   directory from the client with java/scripts/load_data.sh (BulkLoader) */
 COPY Users
 FROM '/class/classes/jtran368/cs166_project_phase3/data/users.csv'
 WITH DELIMITER ',' CSV HEADER;
@@ -15,6 +16,16 @@ COPY FoodOrder
 FROM '/class/classes/jtran368/cs166_project_phase3/data/foodorder.csv'
 WITH DELIMITER ',' CSV HEADER;
 
+/* Start handing out orderIDs after the loaded orders */
+SELECT setval('FoodOrder_orderID_seq', (SELECT COALESCE(MAX(orderID), 0) + 1 FROM FoodOrder), false);
+
 COPY ItemsInOrder
 FROM '/class/classes/jtran368/cs166_project_phase3/data/itemsinorder.csv'
 WITH DELIMITER ',' CSV HEADER;
+
+/* Statistics for the planner, now that the tables hold their data */
+ANALYZE Users;
+ANALYZE Items;
+ANALYZE Store;
+ANALYZE FoodOrder;
+ANALYZE ItemsInOrder;
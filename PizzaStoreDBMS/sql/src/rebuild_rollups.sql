@@ -0,0 +1,25 @@
+/* Recompute the sales rollups from FoodOrder and ItemsInOrder, e.g. after
+   load_data.sql.  Same statements as SalesRollups.REBUILD. */
+BEGIN;
+
+TRUNCATE StoreSalesHourly, StoreSalesDaily, ItemSalesDaily;
+
+INSERT INTO StoreSalesHourly
+SELECT storeID, date_trunc('hour', orderTimestamp), count(*), sum(totalPrice),
+       count(*) FILTER (WHERE orderStatus = 'complete'),
+       COALESCE(sum(totalPrice) FILTER (WHERE orderStatus = 'complete'), 0)
+FROM FoodOrder GROUP BY 1, 2;
+
+INSERT INTO StoreSalesDaily
+SELECT storeID, date_trunc('day', hour), sum(orders), sum(revenue), sum(completedOrders), sum(completedRevenue)
+FROM StoreSalesHourly GROUP BY 1, 2;
+
+INSERT INTO ItemSalesDaily
+SELECT F.storeID, date_trunc('day', F.orderTimestamp), I.itemName, sum(I.quantity)
+FROM FoodOrder F JOIN ItemsInOrder I ON I.orderID = F.orderID GROUP BY 1, 2, 3;
+
+COMMIT;
+
+ANALYZE StoreSalesHourly;
+ANALYZE StoreSalesDaily;
+ANALYZE ItemSalesDaily;